@@ -55,6 +55,9 @@ public abstract class Action {
   private final String actionName;
   protected String ruleName;
 
+  /** Database id of the rule this action belongs to */
+  protected long ruleId;
+
   /** Shows whether notification service is on or off for this Action*/
   protected boolean showNotification;
   
@@ -76,6 +79,10 @@ public abstract class Action {
    * to the database entry where this action is stored.
    * */
   protected long databaseId;
+
+  /** Number of identical actions of other rules suppressed in favor of this one */
+  private int suppressedDuplicates;
+
   /**
    * Create a new Action.
    * 
@@ -137,6 +144,14 @@ public abstract class Action {
   public void setRuleName(String ruleName) {
     this.ruleName = ruleName;    
   }
+
+  public void setRuleId(long ruleId) {
+    this.ruleId = ruleId;
+  }
+
+  public long getRuleId() {
+    return ruleId;
+  }
   public void setDatabaseId(long databaseId) {
     this.databaseId = databaseId;
   }
@@ -158,5 +173,13 @@ public abstract class Action {
   public boolean showsNotification() {
     return this.showNotification;
   }
+
+  public void addSuppressedDuplicate() {
+    suppressedDuplicates++;
+  }
+
+  public int getSuppressedDuplicates() {
+    return suppressedDuplicates;
+  }
   
 }
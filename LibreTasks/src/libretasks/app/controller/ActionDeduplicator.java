@@ -0,0 +1,196 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+/**
+ * Suppresses the actions which are identical to an action already fired by another rule, for the
+ * same event and optionally within a sliding window of time across events. Two actions are
+ * identical if they fire the same intent action at the same component with the same parameters,
+ * once the parameters are filled with the event attributes. Rules can opt out, see
+ * {@link Rule#allowsDuplicateActions()}.
+ */
+public class ActionDeduplicator {
+
+  /** Intent extras which identify where an action comes from rather than what it does */
+  private static final String[] IGNORED_EXTRAS = { Action.DATABASE_ID, Action.ACTION_TYPE,
+      Action.NOTIFICATION };
+
+  /** Length of the window, 0 to only suppress duplicates within one event */
+  private long window;
+
+  /** Time each action was last fired, by key, for the window */
+  private final HashMap<String, Long> lastFired = new HashMap<String, Long>();
+
+  /** Database id of the rule which last fired each action, by key */
+  private final HashMap<String, Long> lastFiredBy = new HashMap<String, Long>();
+
+  private long suppressedCount;
+
+  /**
+   * The actions fired for one event.
+   */
+  public class Batch {
+    private final long now;
+
+    /** The actions kept so far, by key */
+    private final HashMap<String, Action> keptActions = new HashMap<String, Action>();
+
+    private int suppressedCount;
+
+    private Batch(long now) {
+      this.now = now;
+    }
+
+    /**
+     * Checks whether an action duplicates an action of another rule kept before, within the event
+     * or the window. Duplicates within the event are counted by the action they duplicate. A rule
+     * listing the same action twice keeps both, only the actions of different rules are merged.
+     * 
+     * @param action
+     *          the action with its parameters filled
+     * @return true if the action has to be fired, false if it is a duplicate
+     */
+    public boolean offer(Action action) {
+      String key = getKey(action);
+      Action keptAction = keptActions.get(key);
+      if (keptAction != null) {
+        if (keptAction.getRuleId() == action.getRuleId()) {
+          return true;
+        }
+        keptAction.addSuppressedDuplicate();
+        suppressed();
+        return false;
+      }
+
+      synchronized (ActionDeduplicator.this) {
+        Long firedAt = lastFired.get(key);
+        if (firedAt != null && now - firedAt < window
+            && lastFiredBy.get(key).longValue() != action.getRuleId()) {
+          suppressed();
+          return false;
+        }
+        if (window > 0) {
+          lastFired.put(key, now);
+          lastFiredBy.put(key, action.getRuleId());
+        }
+      }
+      keptActions.put(key, action);
+      return true;
+    }
+
+    /**
+     * @return the number of actions suppressed for this event
+     */
+    public int getSuppressedCount() {
+      return suppressedCount;
+    }
+
+    private void suppressed() {
+      suppressedCount++;
+      synchronized (ActionDeduplicator.this) {
+        ActionDeduplicator.this.suppressedCount++;
+      }
+    }
+  }
+
+  /**
+   * @param window
+   *          the time in milliseconds during which an action fired for an event suppresses
+   *          identical actions fired for the next events, 0 to only suppress duplicates within one
+   *          event
+   */
+  public ActionDeduplicator(long window) {
+    this.window = window;
+  }
+
+  /**
+   * @param window
+   *          the time in milliseconds during which an action fired for an event suppresses
+   *          identical actions fired for the next events, 0 to only suppress duplicates within one
+   *          event
+   */
+  public synchronized void setWindow(long window) {
+    this.window = window;
+    if (window <= 0) {
+      lastFired.clear();
+      lastFiredBy.clear();
+    }
+  }
+
+  /**
+   * Starts deduplicating the actions of a new event.
+   * 
+   * @return the batch the actions of the event are offered to
+   */
+  public synchronized Batch newBatch() {
+    long now = SystemClock.elapsedRealtime();
+
+    // Forget the actions fired before the window
+    for (Iterator<Map.Entry<String, Long>> fired = lastFired.entrySet().iterator();
+        fired.hasNext();) {
+      Map.Entry<String, Long> firedAt = fired.next();
+      if (now - firedAt.getValue() >= window) {
+        lastFiredBy.remove(firedAt.getKey());
+        fired.remove();
+      }
+    }
+    return new Batch(now);
+  }
+
+  /**
+   * @return the number of actions suppressed since the application started
+   */
+  public synchronized long getSuppressedCount() {
+    return suppressedCount;
+  }
+
+  /**
+   * @return a key equal for the actions firing identical intents
+   */
+  private static String getKey(Action action) {
+    Intent intent = action.getIntent();
+    StringBuilder key = new StringBuilder();
+    key.append(action.getExecutionMethod()).append('|').append(intent.getAction()).append('|')
+        .append(intent.getComponent() == null ? "" : intent.getComponent().flattenToString())
+        .append('|').append(intent.getDataString());
+
+    Bundle extras = intent.getExtras();
+    if (extras != null) {
+      // Sort the parameters so that they compare in the same order
+      TreeMap<String, String> parameters = new TreeMap<String, String>();
+      for (String name : extras.keySet()) {
+        parameters.put(name, String.valueOf(extras.get(name)));
+      }
+      for (String ignored : IGNORED_EXTRAS) {
+        parameters.remove(ignored);
+      }
+      for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+        key.append('|').append(parameter.getKey()).append('=').append(parameter.getValue());
+      }
+    }
+    return key.toString();
+  }
+}
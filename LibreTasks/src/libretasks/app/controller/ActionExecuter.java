@@ -33,20 +33,90 @@
  *******************************************************************************/
 package libretasks.app.controller;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.ActivityNotFoundException;
 import android.content.Context;
+import android.content.Intent;
+import android.os.Process;
+import android.os.SystemClock;
 import libretasks.app.controller.util.ExceptionMessageMap;
 import libretasks.app.controller.util.Logger;
 import libretasks.app.controller.util.OmnidroidException;
 
 /**
  * The ActionExecuter is the engine which will execute all actions.
+ * <p>
+ * Actions are either executed one after the other by {@link #executeActions(Context, List)}, or
+ * concurrently by {@link #executeActionsConcurrently(Context, List)}. In the concurrent mode the
+ * actions of different rules run in parallel on a small pool of threads, while the actions of one
+ * rule keep their order: an action executed by a service is only followed by the next action of its
+ * rule once the service reported its result to {@link ResultProcessor}, or after a timeout. The
+ * number of actions of one application running at the same time is limited per application.
+ * </p>
  */
 public class ActionExecuter {
   private static final String TAG = ActionExecuter.class.getSimpleName();
 
+  /** Intent extra identifying an action executed concurrently, to match its result */
+  public static final String EXECUTION_ID = "ExecutionId";
+
+  /** Maximum number of rules whose actions are executed at the same time */
+  private static final int MAX_PARALLEL_RULES = 4;
+
+  /** Default maximum number of actions of one application executed at the same time */
+  private static final int DEFAULT_CHANNEL_LIMIT = 2;
+
+  /** Default time to wait for the result of an action before going on with its rule */
+  private static final long DEFAULT_ACTION_TIMEOUT = 15 * 1000;
+
+  /** Threads executing the actions concurrently, created on first use */
+  private static ExecutorService executor;
+
+  /** Concurrency limits and permits by application name */
+  private static final HashMap<String, Integer> channelLimits = new HashMap<String, Integer>();
+  private static final HashMap<String, Semaphore> channels = new HashMap<String, Semaphore>();
+
+  private static volatile long actionTimeout = DEFAULT_ACTION_TIMEOUT;
+
+  /** Actions waiting for their result, by execution id */
+  private static final Map<Long, Execution> executions = new ConcurrentHashMap<Long, Execution>();
+  private static final AtomicLong nextExecutionId = new AtomicLong();
+
+  // Statistics of the concurrently executed actions, latencies are in milliseconds
+  private static final AtomicLong completedCount = new AtomicLong();
+  private static final AtomicLong timedOutCount = new AtomicLong();
+  private static final AtomicLong failedCount = new AtomicLong();
+  private static final AtomicLong totalLatency = new AtomicLong();
+  private static volatile long maxLatency;
+
+  /**
+   * An action executed concurrently whose result is awaited.
+   */
+  private static class Execution {
+    final long startTime = SystemClock.elapsedRealtime();
+    final CountDownLatch done = new CountDownLatch(1);
+  }
+
+  /**
+   * This is a static utility class which cannot be instantiated.
+   */
+  private ActionExecuter() {
+  }
+
   /**
    * Execute a list of actions in the given context.
    * 
@@ -60,31 +130,272 @@ public class ActionExecuter {
   public static void executeActions(Context context, List<Action> actions)
       throws OmnidroidException {
     for (Action action : actions) {
-      try {
-        if (action.getExecutionMethod().equals(Action.BY_ACTIVITY)) {
-          context.startActivity(action.getIntent());
-        } else if (action.getExecutionMethod().equals(Action.BY_SERVICE)) {
-          context.startService(action.getIntent());
-        } else if (action.getExecutionMethod().equals(Action.BY_BROADCAST)) {
-          context.sendBroadcast(action.getIntent());
-        } else {
-          // Illegal Action execution method.
-          throw new OmnidroidException(120001, ExceptionMessageMap.getMessage(new Integer(120001)
-              .toString())
-              + action.getActionName());
+      execute(context, action, action.getIntent());
+    }
+  }
+
+  /**
+   * Execute a list of actions in the given context, the actions of different rules in parallel and
+   * the actions of each rule in order. This method returns before the actions are executed.
+   * 
+   * @param context
+   *          Context in which actions will be executed
+   * @param actions
+   *          List of actions to be executed
+   * @throws OmnidroidException
+   *           if an illegal execution method is specified, no action is executed then
+   */
+  public static void executeActionsConcurrently(final Context context, List<Action> actions)
+      throws OmnidroidException {
+    // Rules are told apart by their database id, different rules may share a name
+    LinkedHashMap<Long, ArrayList<Action>> actionsByRule =
+        new LinkedHashMap<Long, ArrayList<Action>>();
+    for (Action action : actions) {
+      if (!isValidExecutionMethod(action.getExecutionMethod())) {
+        throw getIllegalExecutionMethodException(action);
+      }
+      ArrayList<Action> ruleActions = actionsByRule.get(action.getRuleId());
+      if (ruleActions == null) {
+        ruleActions = new ArrayList<Action>();
+        actionsByRule.put(action.getRuleId(), ruleActions);
+      }
+      ruleActions.add(action);
+    }
+
+    ExecutorService ruleExecutor = getExecutor();
+    for (final ArrayList<Action> ruleActions : actionsByRule.values()) {
+      ruleExecutor.execute(new Runnable() {
+        public void run() {
+          for (Action action : ruleActions) {
+            if (!executeAndWait(context, action)) {
+              return;
+            }
+          }
         }
-      } catch (SecurityException e) {
-        // Omnidroid does not have permission to perform this action
-        Logger.w(TAG, e.toString(), e);
-        Logger.w(TAG, e.getLocalizedMessage());
-        Logger.w(TAG, "No permissions to perform this action: " + action.getActionName());
-      } catch (ActivityNotFoundException e) {
-        // No activity found to perform this action
-        Logger.w(TAG, e.toString(), e);
-        Logger.w(TAG, e.getLocalizedMessage());
-        Logger.w(TAG, "No activity found to perform this action: " + action.getActionName());
-      }      
+      });
+    }
+  }
+
+  /**
+   * Sets how many actions of an application may be executed at the same time by
+   * {@link #executeActionsConcurrently(Context, List)}.
+   * 
+   * @param appName
+   *          the name of the application of the actions
+   * @param limit
+   *          the maximum number of actions running at the same time, at least 1
+   */
+  public static void setChannelLimit(String appName, int limit) {
+    if (limit < 1) {
+      throw new IllegalArgumentException("Invalid limit " + limit);
+    }
+    synchronized (channels) {
+      channelLimits.put(appName, limit);
+      // Actions already holding permits of the previous limit keep them
+      channels.remove(appName);
     }
   }
 
+  /**
+   * Sets how long the result of an action executed by a service is awaited before the next action
+   * of its rule is executed.
+   * 
+   * @param timeout
+   *          the timeout in milliseconds
+   */
+  public static void setActionTimeout(long timeout) {
+    actionTimeout = timeout;
+  }
+
+  /**
+   * Records the result of an action executed concurrently, letting the next action of its rule be
+   * executed. Called by {@link ResultProcessor}.
+   * 
+   * @param intent
+   *          the intent of the action
+   * @return the time between the execution of the action and its result in milliseconds, or -1 if
+   *         the action was not executed concurrently or its result came after the timeout
+   */
+  public static long actionCompleted(Intent intent) {
+    long executionId = intent.getLongExtra(EXECUTION_ID, -1);
+    Execution execution = executionId == -1 ? null : executions.remove(executionId);
+    if (execution == null) {
+      return -1;
+    }
+
+    long latency = SystemClock.elapsedRealtime() - execution.startTime;
+    completedCount.incrementAndGet();
+    totalLatency.addAndGet(latency);
+    if (latency > maxLatency) {
+      maxLatency = latency;
+    }
+    execution.done.countDown();
+    return latency;
+  }
+
+  /**
+   * @return the number of concurrently executed actions which reported their result in time
+   */
+  public static long getCompletedCount() {
+    return completedCount.get();
+  }
+
+  /**
+   * @return the number of concurrently executed actions whose result was not awaited any longer
+   */
+  public static long getTimedOutCount() {
+    return timedOutCount.get();
+  }
+
+  /**
+   * @return the number of concurrently executed actions whose intent could not be fired
+   */
+  public static long getFailedCount() {
+    return failedCount.get();
+  }
+
+  /**
+   * @return the average time between the execution of an action and its result, in ms
+   */
+  public static long getAverageLatency() {
+    long count = completedCount.get();
+    return count == 0 ? 0 : totalLatency.get() / count;
+  }
+
+  /**
+   * @return the longest time between the execution of an action and its result, in ms
+   */
+  public static long getMaxLatency() {
+    return maxLatency;
+  }
+
+  /**
+   * Executes an action within the limit of its application, and waits for its result if it is
+   * executed by a service.
+   * 
+   * @return false if the thread was interrupted, true otherwise
+   */
+  private static boolean executeAndWait(Context context, Action action) {
+    Semaphore channel = getChannel(action.getAppName());
+    try {
+      channel.acquire();
+    } catch (InterruptedException e) {
+      return false;
+    }
+
+    Long executionId = null;
+    try {
+      Intent intent = action.getIntent();
+      Execution execution = null;
+      if (action.getExecutionMethod().equals(Action.BY_SERVICE)) {
+        executionId = nextExecutionId.incrementAndGet();
+        execution = new Execution();
+        intent.putExtra(EXECUTION_ID, executionId.longValue());
+        executions.put(executionId, execution);
+      }
+
+      if (!execute(context, action, intent)) {
+        // Nothing will report a result, the next action of the rule goes on right away
+        failedCount.incrementAndGet();
+      } else if (execution != null
+          && !execution.done.await(actionTimeout, TimeUnit.MILLISECONDS)) {
+        timedOutCount.incrementAndGet();
+        Logger.w(TAG, "No result from " + action.getActionName() + " after " + actionTimeout
+            + " ms, going on with rule " + action.getRuleName());
+      }
+      return true;
+    } catch (InterruptedException e) {
+      return false;
+    } catch (OmnidroidException e) {
+      // Execution methods are checked before the actions are scheduled
+      Logger.w(TAG, e.toString(), e);
+      return true;
+    } catch (RuntimeException e) {
+      Logger.e(TAG, "Failed to execute " + action.getActionName(), e);
+      return true;
+    } finally {
+      if (executionId != null) {
+        executions.remove(executionId);
+      }
+      channel.release();
+    }
+  }
+
+  /**
+   * Fires the intent of an action.
+   * 
+   * @return true if the intent was fired, false if it could not be
+   * @throws OmnidroidException
+   *           if an illegal execution method is specified
+   */
+  private static boolean execute(Context context, Action action, Intent intent)
+      throws OmnidroidException {
+    try {
+      if (action.getExecutionMethod().equals(Action.BY_ACTIVITY)) {
+        context.startActivity(intent);
+      } else if (action.getExecutionMethod().equals(Action.BY_SERVICE)) {
+        if (context.startService(intent) == null) {
+          Logger.w(TAG, "No service found to perform this action: " + action.getActionName());
+          return false;
+        }
+      } else if (action.getExecutionMethod().equals(Action.BY_BROADCAST)) {
+        context.sendBroadcast(intent);
+      } else {
+        // Illegal Action execution method.
+        throw getIllegalExecutionMethodException(action);
+      }
+      return true;
+    } catch (SecurityException e) {
+      // Omnidroid does not have permission to perform this action
+      Logger.w(TAG, e.toString(), e);
+      Logger.w(TAG, e.getLocalizedMessage());
+      Logger.w(TAG, "No permissions to perform this action: " + action.getActionName());
+    } catch (ActivityNotFoundException e) {
+      // No activity found to perform this action
+      Logger.w(TAG, e.toString(), e);
+      Logger.w(TAG, e.getLocalizedMessage());
+      Logger.w(TAG, "No activity found to perform this action: " + action.getActionName());
+    }
+    return false;
+  }
+
+  private static boolean isValidExecutionMethod(String executionMethod) {
+    return executionMethod.equals(Action.BY_ACTIVITY) || executionMethod.equals(Action.BY_SERVICE)
+        || executionMethod.equals(Action.BY_BROADCAST);
+  }
+
+  private static OmnidroidException getIllegalExecutionMethodException(Action action) {
+    return new OmnidroidException(120001, ExceptionMessageMap.getMessage(new Integer(120001)
+        .toString())
+        + action.getActionName());
+  }
+
+  private static Semaphore getChannel(String appName) {
+    synchronized (channels) {
+      Semaphore channel = channels.get(appName);
+      if (channel == null) {
+        Integer limit = channelLimits.get(appName);
+        channel = new Semaphore(limit == null ? DEFAULT_CHANNEL_LIMIT : limit);
+        channels.put(appName, channel);
+      }
+      return channel;
+    }
+  }
+
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      final AtomicInteger threadCount = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(MAX_PARALLEL_RULES, new ThreadFactory() {
+        public Thread newThread(final Runnable runnable) {
+          return new Thread(new Runnable() {
+            public void run() {
+              Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+              runnable.run();
+            }
+          }, TAG + "-" + threadCount.incrementAndGet());
+        }
+      });
+    }
+    return executor;
+  }
 }
@@ -0,0 +1,305 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import libretasks.app.controller.datatypes.DataType;
+import libretasks.app.controller.datatypes.DataTypeRegistry;
+import libretasks.app.controller.datatypes.OmniArea;
+import libretasks.app.controller.util.DualKey;
+
+/**
+ * Spatial index over the constants of {@link OmniArea} NEAR and AWAY filters. The area centers are
+ * stored in a grid of latitude/longitude cells, so that a location only needs to be compared with
+ * the areas in the cells around it. Areas farther away are known not to be near without computing
+ * their distance, which also answers AWAY filters as the complement.
+ * <p>
+ * Distances are first estimated with the haversine formula, see
+ * {@link OmniArea#getHaversineDistance(double, double, double, double)}. Only areas whose estimate
+ * is too close to call are left to the filters themselves.
+ * </p>
+ */
+public class AreaFilterIndex implements FilterIndex {
+
+  /** Size of a grid cell, in degrees */
+  private static final double CELL_DEGREES = 0.1;
+
+  /** Number of grid cells around a parallel */
+  private static final int LONGITUDE_CELLS = (int) Math.round(360 / CELL_DEGREES);
+
+  /** Areas with a larger radius (in miles) are not put in the grid but checked for every event */
+  private static final double MAX_INDEXED_RADIUS = 10;
+
+  /** Queries covering more cells check all areas instead */
+  private static final int MAX_QUERY_CELLS = 1024;
+
+  /** Tolerances between the haversine estimate and the distance computed by android */
+  private static final double RELATIVE_TOLERANCE = 0.01;
+  private static final double ABSOLUTE_TOLERANCE = 0.001;
+
+  /**
+   * An area constant of one or more filters.
+   */
+  private static class Area {
+    final Bucket bucket;
+    final OmniArea area;
+
+    /** Rules guarded by a NEAR filter on this area */
+    final BitSet rules = new BitSet();
+
+    Area(Bucket bucket, OmniArea area) {
+      this.bucket = bucket;
+      this.area = area;
+    }
+  }
+
+  /**
+   * The area filters on one attribute parsed with one data type.
+   */
+  private static class Bucket {
+    final DataTypeRegistry.Factory factory;
+
+    /** All areas by their string representation */
+    final HashMap<String, Area> areas = new HashMap<String, Area>();
+
+    /** Areas with a radius up to MAX_INDEXED_RADIUS by grid cell of their center */
+    final HashMap<Long, ArrayList<Area>> cells = new HashMap<Long, ArrayList<Area>>();
+
+    /** Areas with a larger radius */
+    final ArrayList<Area> wideAreas = new ArrayList<Area>();
+
+    /** Largest radius of the areas in the grid */
+    double maxRadius;
+
+    Bucket(DataTypeRegistry.Factory factory) {
+      this.factory = factory;
+    }
+
+    Area getArea(OmniArea constant) {
+      String key = constant.toString();
+      Area area = areas.get(key);
+      if (area == null) {
+        area = new Area(this, constant);
+        areas.put(key, area);
+
+        if (constant.getProximityDistance() > MAX_INDEXED_RADIUS) {
+          wideAreas.add(area);
+        } else {
+          Long cell = getCell(getCellIndex(constant.getLatitude()), getCellIndex(constant
+              .getLongitude()));
+          ArrayList<Area> cellAreas = cells.get(cell);
+          if (cellAreas == null) {
+            cellAreas = new ArrayList<Area>();
+            cells.put(cell, cellAreas);
+          }
+          cellAreas.add(area);
+          maxRadius = Math.max(maxRadius, constant.getProximityDistance());
+        }
+      }
+      return area;
+    }
+
+    /**
+     * Returns all areas which may be near a location, along with some which are not.
+     */
+    ArrayList<Area> findCandidates(OmniArea location) {
+      // Farthest distance from the location at which a grid area may still be near
+      double radius = (location.getProximityDistance() + maxRadius + ABSOLUTE_TOLERANCE)
+          / (1 - RELATIVE_TOLERANCE);
+
+      double latitudeDelta = Math.toDegrees(radius / OmniArea.EARTH_RADIUS_MILES);
+      double maxLatitude = Math.abs(location.getLatitude()) + latitudeDelta;
+      double sinHalfAngle = Math.sin(radius / (2 * OmniArea.EARTH_RADIUS_MILES));
+      double minCosLatitude = Math.cos(Math.toRadians(Math.min(90, maxLatitude)));
+      if (maxLatitude >= 90 || sinHalfAngle >= minCosLatitude) {
+        return new ArrayList<Area>(areas.values());
+      }
+      double longitudeDelta = Math.toDegrees(2 * Math.asin(sinHalfAngle / minCosLatitude));
+
+      int minLatitudeCell = getCellIndex(location.getLatitude() - latitudeDelta);
+      int maxLatitudeCell = getCellIndex(location.getLatitude() + latitudeDelta);
+      int minLongitudeCell = getCellIndex(location.getLongitude() - longitudeDelta);
+      int maxLongitudeCell = getCellIndex(location.getLongitude() + longitudeDelta);
+      if ((long) (maxLatitudeCell - minLatitudeCell + 1)
+          * (maxLongitudeCell - minLongitudeCell + 1) > MAX_QUERY_CELLS) {
+        return new ArrayList<Area>(areas.values());
+      }
+
+      ArrayList<Area> result = new ArrayList<Area>(wideAreas);
+      for (int i = minLatitudeCell; i <= maxLatitudeCell; i++) {
+        for (int j = minLongitudeCell; j <= maxLongitudeCell; j++) {
+          ArrayList<Area> cellAreas = cells.get(getCell(i, j));
+          if (cellAreas != null) {
+            result.addAll(cellAreas);
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  /** Buckets by attribute name and data type factory */
+  private final HashMap<DualKey<String, DataTypeRegistry.Factory>, Bucket> buckets =
+      new HashMap<DualKey<String, DataTypeRegistry.Factory>, Bucket>();
+
+  /** The area of each indexed filter */
+  private final HashMap<Filter, Area> areasByFilter = new HashMap<Filter, Area>();
+
+  public boolean addGuard(Filter filter, int rulePosition) {
+    FilterPredicate predicate = filter.getPredicate();
+    if (!predicate.isValid() || !(predicate.getRightHandSide() instanceof OmniArea)) {
+      return false;
+    }
+    if (predicate.getComparisonFilter() != OmniArea.Filter.NEAR
+        && predicate.getComparisonFilter() != OmniArea.Filter.AWAY) {
+      return false;
+    }
+
+    DualKey<String, DataTypeRegistry.Factory> bucketKey =
+        new DualKey<String, DataTypeRegistry.Factory>(predicate.getEventAttribute(), predicate
+            .getLeftHandSideFactory());
+    Bucket bucket = buckets.get(bucketKey);
+    if (bucket == null) {
+      bucket = new Bucket(predicate.getLeftHandSideFactory());
+      buckets.put(bucketKey, bucket);
+    }
+
+    Area area = bucket.getArea((OmniArea) predicate.getRightHandSide());
+    areasByFilter.put(filter, area);
+
+    // Only NEAR filters rule out events, AWAY filters are merely resolved
+    if (predicate.getComparisonFilter() == OmniArea.Filter.NEAR) {
+      area.rules.set(rulePosition);
+      return true;
+    }
+    return false;
+  }
+
+  public void collectCandidates(Event event, BitSet candidates) {
+    if (buckets.isEmpty()) {
+      return;
+    }
+
+    // Areas possibly near the event's location, with true/false if known or null if not
+    final HashMap<Area, Boolean> nearAreas = new HashMap<Area, Boolean>();
+    final HashSet<Bucket> resolvedBuckets = new HashSet<Bucket>();
+
+    for (DualKey<String, DataTypeRegistry.Factory> bucketKey : buckets.keySet()) {
+      Bucket bucket = buckets.get(bucketKey);
+
+      DataType value;
+      try {
+        value = event.getParsedAttribute(bucketKey.getKey1(), bucket.factory);
+      } catch (IllegalArgumentException e) {
+        // Let the filters themselves deal with the unknown attribute
+        markAll(bucket, candidates);
+        continue;
+      }
+
+      if (value == null) {
+        // No valid location, NEAR filters never match
+        continue;
+      } else if (!(value instanceof OmniArea)) {
+        markAll(bucket, candidates);
+        continue;
+      }
+
+      OmniArea location = (OmniArea) value;
+      for (Area area : bucket.findCandidates(location)) {
+        Boolean near = isNear(location, area.area);
+        nearAreas.put(area, near);
+        if (near == null || near) {
+          candidates.or(area.rules);
+        }
+      }
+      resolvedBuckets.add(bucket);
+    }
+
+    event.getFilterMemo().addResolver(new FilterMemo.Resolver() {
+      public Boolean resolve(Filter filter) {
+        Area area = areasByFilter.get(filter);
+        if (area == null || !resolvedBuckets.contains(area.bucket)) {
+          return null;
+        }
+
+        boolean near;
+        if (nearAreas.containsKey(area)) {
+          Boolean result = nearAreas.get(area);
+          if (result == null) {
+            return null;
+          }
+          near = result;
+        } else {
+          near = false;
+        }
+        return filter.getPredicate().getComparisonFilter() == OmniArea.Filter.NEAR ? near : !near;
+      }
+    });
+  }
+
+  /**
+   * Marks all rules guarded by the areas of a bucket as candidates.
+   */
+  private static void markAll(Bucket bucket, BitSet candidates) {
+    for (Area area : bucket.areas.values()) {
+      candidates.or(area.rules);
+    }
+  }
+
+  /**
+   * Estimates whether two areas intersect, the same way {@link OmniArea.Filter#NEAR} does.
+   *
+   * @return true if the areas certainly intersect, false if they certainly do not, null if the
+   *         estimate is too close to call
+   */
+  private static Boolean isNear(OmniArea location, OmniArea area) {
+    double minimumDistanceToIntersect = location.getProximityDistance()
+        + area.getProximityDistance();
+    double distance = OmniArea.getHaversineDistance(location.getLatitude(), location
+        .getLongitude(), area.getLatitude(), area.getLongitude());
+
+    if (distance * (1 - RELATIVE_TOLERANCE) - ABSOLUTE_TOLERANCE > minimumDistanceToIntersect) {
+      return false;
+    } else if (distance * (1 + RELATIVE_TOLERANCE) + ABSOLUTE_TOLERANCE
+        <= minimumDistanceToIntersect) {
+      return true;
+    }
+    return null;
+  }
+
+  /**
+   * @return the index of the grid cell containing a latitude or longitude
+   */
+  private static int getCellIndex(double degrees) {
+    return (int) Math.floor(degrees / CELL_DEGREES);
+  }
+
+  /**
+   * @return the key of a grid cell, wrapping longitudes around the globe
+   */
+  private static Long getCell(int latitudeCell, int longitudeCell) {
+    int wrappedLongitudeCell = longitudeCell % LONGITUDE_CELLS;
+    if (wrappedLongitudeCell < 0) {
+      wrappedLongitudeCell += LONGITUDE_CELLS;
+    }
+    return (long) latitudeCell * LONGITUDE_CELLS + wrappedLongitudeCell;
+  }
+}
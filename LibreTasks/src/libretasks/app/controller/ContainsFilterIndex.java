@@ -0,0 +1,133 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import libretasks.app.controller.datatypes.DataType;
+import libretasks.app.controller.datatypes.DataTypeRegistry;
+import libretasks.app.controller.datatypes.OmniText;
+import libretasks.app.controller.util.AhoCorasickMatcher;
+import libretasks.app.controller.util.DualKey;
+
+/**
+ * Indexes {@link OmniText} CONTAINS filters with one {@link AhoCorasickMatcher} per attribute, so
+ * that the text of an event is scanned once for all the keywords of all rules instead of once per
+ * filter. The text and the keywords are lower cased the same way as {@link OmniText} does.
+ */
+public class ContainsFilterIndex implements FilterIndex {
+
+  /**
+   * The CONTAINS filters on one attribute parsed with one data type.
+   */
+  private static class Bucket {
+    final DataTypeRegistry.Factory factory;
+    final AhoCorasickMatcher matcher = new AhoCorasickMatcher();
+
+    /** Rules guarded by a filter in this bucket, by id of the filter keyword */
+    final ArrayList<BitSet> rulesByPattern = new ArrayList<BitSet>();
+
+    /** All rules guarded by a filter in this bucket */
+    final BitSet rules = new BitSet();
+
+    Bucket(DataTypeRegistry.Factory factory) {
+      this.factory = factory;
+    }
+  }
+
+  /** Buckets by attribute name and data type factory */
+  private final HashMap<DualKey<String, DataTypeRegistry.Factory>, Bucket> buckets =
+      new HashMap<DualKey<String, DataTypeRegistry.Factory>, Bucket>();
+
+  /** The bucket and keyword id of each indexed filter */
+  private final HashMap<Filter, DualKey<Bucket, Integer>> patternsByFilter =
+      new HashMap<Filter, DualKey<Bucket, Integer>>();
+
+  public boolean addGuard(Filter filter, int rulePosition) {
+    FilterPredicate predicate = filter.getPredicate();
+    if (!predicate.isValid() || predicate.getComparisonFilter() != OmniText.Filter.CONTAINS
+        || !(predicate.getRightHandSide() instanceof OmniText)) {
+      return false;
+    }
+
+    DualKey<String, DataTypeRegistry.Factory> bucketKey =
+        new DualKey<String, DataTypeRegistry.Factory>(predicate.getEventAttribute(), predicate
+            .getLeftHandSideFactory());
+    Bucket bucket = buckets.get(bucketKey);
+    if (bucket == null) {
+      bucket = new Bucket(predicate.getLeftHandSideFactory());
+      buckets.put(bucketKey, bucket);
+    }
+
+    int patternId = bucket.matcher.addPattern(predicate.getRightHandSide().toString()
+        .toLowerCase());
+    if (patternId == bucket.rulesByPattern.size()) {
+      bucket.rulesByPattern.add(new BitSet());
+    }
+    bucket.rulesByPattern.get(patternId).set(rulePosition);
+    bucket.rules.set(rulePosition);
+    patternsByFilter.put(filter, new DualKey<Bucket, Integer>(bucket, patternId));
+    return true;
+  }
+
+  public void collectCandidates(Event event, BitSet candidates) {
+    if (buckets.isEmpty()) {
+      return;
+    }
+
+    final HashMap<Bucket, BitSet> matchedPatterns = new HashMap<Bucket, BitSet>();
+    for (DualKey<String, DataTypeRegistry.Factory> bucketKey : buckets.keySet()) {
+      Bucket bucket = buckets.get(bucketKey);
+
+      DataType value;
+      try {
+        value = event.getParsedAttribute(bucketKey.getKey1(), bucket.factory);
+      } catch (IllegalArgumentException e) {
+        // Let the filters themselves deal with the unknown attribute
+        candidates.or(bucket.rules);
+        continue;
+      }
+
+      if (value == null) {
+        // Invalid data never matches any filter
+        continue;
+      } else if (!(value instanceof OmniText)) {
+        candidates.or(bucket.rules);
+        continue;
+      }
+
+      BitSet matches = bucket.matcher.match(value.toString().toLowerCase());
+      for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+        candidates.or(bucket.rulesByPattern.get(i));
+      }
+      matchedPatterns.put(bucket, matches);
+    }
+
+    event.getFilterMemo().addResolver(new FilterMemo.Resolver() {
+      public Boolean resolve(Filter filter) {
+        DualKey<Bucket, Integer> pattern = patternsByFilter.get(filter);
+        if (pattern == null) {
+          return null;
+        }
+        BitSet matches = matchedPatterns.get(pattern.getKey1());
+        return matches == null ? null : matches.get(pattern.getKey2());
+      }
+    });
+  }
+}
@@ -0,0 +1,136 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import java.util.BitSet;
+import java.util.HashMap;
+
+import libretasks.app.controller.datatypes.DataType;
+import libretasks.app.controller.datatypes.DataTypeRegistry;
+import libretasks.app.controller.datatypes.OmniPhoneNumber;
+import libretasks.app.controller.datatypes.OmniText;
+import libretasks.app.controller.util.DualKey;
+
+/**
+ * Indexes {@link OmniText} and {@link OmniPhoneNumber} equality filters by attribute and normalized
+ * constant, so that an event only visits the rules whose equality guards may match its data,
+ * whatever the number of rules.
+ */
+public class EqualityFilterIndex implements FilterIndex {
+
+  /**
+   * The equality filters on one attribute parsed with one data type.
+   */
+  private static class Bucket {
+    final DataTypeRegistry.Factory factory;
+    final boolean phoneNumber;
+
+    /** Rules guarded by a filter in this bucket, by key of the filter constant */
+    final HashMap<String, BitSet> rulesByKey = new HashMap<String, BitSet>();
+
+    /** All rules guarded by a filter in this bucket */
+    final BitSet rules = new BitSet();
+
+    Bucket(DataTypeRegistry.Factory factory, boolean phoneNumber) {
+      this.factory = factory;
+      this.phoneNumber = phoneNumber;
+    }
+
+    String getKey(DataType value) {
+      if (phoneNumber) {
+        return value instanceof OmniPhoneNumber ? OmniPhoneNumber.getEqualityKey(value.toString())
+            : null;
+      }
+      return value instanceof OmniText ? OmniText.getEqualityKey(value.toString()) : null;
+    }
+  }
+
+  /** Buckets by attribute name and data type factory */
+  private final HashMap<DualKey<String, DataTypeRegistry.Factory>, Bucket> buckets =
+      new HashMap<DualKey<String, DataTypeRegistry.Factory>, Bucket>();
+
+  public boolean addGuard(Filter filter, int rulePosition) {
+    FilterPredicate predicate = filter.getPredicate();
+    if (!predicate.isValid()) {
+      return false;
+    }
+
+    boolean phoneNumber;
+    if (predicate.getComparisonFilter() == OmniText.Filter.EQUALS) {
+      phoneNumber = false;
+    } else if (predicate.getComparisonFilter() == OmniPhoneNumber.Filter.EQUALS) {
+      phoneNumber = true;
+    } else {
+      return false;
+    }
+
+    DualKey<String, DataTypeRegistry.Factory> bucketKey =
+        new DualKey<String, DataTypeRegistry.Factory>(predicate.getEventAttribute(), predicate
+            .getLeftHandSideFactory());
+    Bucket bucket = buckets.get(bucketKey);
+    if (bucket == null) {
+      bucket = new Bucket(predicate.getLeftHandSideFactory(), phoneNumber);
+    } else if (bucket.phoneNumber != phoneNumber) {
+      return false;
+    }
+
+    String key = bucket.getKey(predicate.getRightHandSide());
+    if (key == null) {
+      return false;
+    }
+
+    BitSet rules = bucket.rulesByKey.get(key);
+    if (rules == null) {
+      rules = new BitSet();
+      bucket.rulesByKey.put(key, rules);
+    }
+    rules.set(rulePosition);
+    bucket.rules.set(rulePosition);
+    buckets.put(bucketKey, bucket);
+    return true;
+  }
+
+  public void collectCandidates(Event event, BitSet candidates) {
+    for (DualKey<String, DataTypeRegistry.Factory> bucketKey : buckets.keySet()) {
+      Bucket bucket = buckets.get(bucketKey);
+
+      DataType value;
+      try {
+        value = event.getParsedAttribute(bucketKey.getKey1(), bucket.factory);
+      } catch (IllegalArgumentException e) {
+        // Let the filters themselves deal with the unknown attribute
+        candidates.or(bucket.rules);
+        continue;
+      }
+
+      if (value == null) {
+        // Invalid data never matches any filter
+        continue;
+      }
+
+      String key = bucket.getKey(value);
+      if (key == null) {
+        candidates.or(bucket.rules);
+      } else {
+        BitSet rules = bucket.rulesByKey.get(key);
+        if (rules != null) {
+          candidates.or(rules);
+        }
+      }
+    }
+  }
+}
@@ -15,29 +15,77 @@
  *******************************************************************************/
 package libretasks.app.controller;
 
+import java.util.Date;
+import java.util.HashMap;
+
 import android.content.Intent;
+import android.os.Bundle;
+import libretasks.app.controller.datatypes.DataType;
+import libretasks.app.controller.datatypes.DataTypeRegistry;
+import libretasks.app.controller.datatypes.OmniDate;
+import libretasks.app.controller.util.DualKey;
 
 /**
  * This class encapsulates a generic event. It wraps the {@link android.content.Intent} that
  * triggered this event and provides access to any attribute data associated with it. Event should
  * be overridden by a class that describes the actual event and provides access to its specific data
  * attributes.
+ * <p>
+ * The global attributes {@link #ATTRIBUTE_TIME} and {@link #ATTRIBUTE_LOCATION} are only computed
+ * when they are first read, from the time the event was received and from the location supplier
+ * set by the event handler, unless the intent already carries them.
+ * </p>
  */
 public abstract class Event {
   // Constants used in display and attribute tags
   public static final String ATTRIBUTE_LOCATION = "Location";
   public static final String ATTRIBUTE_TIME = "Time";
 
+  /** Intent extra holding the time the event was received, in milliseconds since the epoch */
+  public static final String EXTRA_TIMESTAMP = "libretasks.app.controller.Event.TIMESTAMP";
+
+  /**
+   * Supplies the data of a global attribute the first time it is read.
+   */
+  public interface AttributeSupplier {
+    /**
+     * @param event
+     *          the event whose attribute is read
+     * @return the data of the attribute, or an empty string if it is not available
+     */
+    String getAttribute(Event event);
+  }
+
   /** The name of the event for data lookup */
   private final String appName;
   private final String eventName;
 
-  protected final String timeAttribute;
-  protected final String locationAttribute;
+  /** Time the event was received, in milliseconds since the epoch */
+  private final long timestamp;
+
+  /** Global attribute data, null until it is first read */
+  private String timeAttribute;
+  private String locationAttribute;
+
+  /** Supplies the location attribute if the intent does not carry it, may be null */
+  private AttributeSupplier locationSupplier;
 
   /** Stores the intent that triggered this event, which contains data associated with it */
   protected final Intent intent;
 
+  /** Attribute data already looked up for this event, by attribute name */
+  private final HashMap<String, String> attributeCache = new HashMap<String, String>();
+
+  /**
+   * Attribute data already parsed for this event, by attribute name and data type factory. May
+   * contain null values for data that is not valid for its data type.
+   */
+  private final HashMap<DualKey<String, DataTypeRegistry.Factory>, DataType> parsedAttributeCache =
+      new HashMap<DualKey<String, DataTypeRegistry.Factory>, DataType>();
+
+  /** Results of the filters already evaluated for this event */
+  private final FilterMemo filterMemo = new FilterMemo();
+
   /**
    * Create a new event based on the received intent.
    * 
@@ -49,16 +97,18 @@ public abstract class Event {
   public Event(String appName, String eventName, Intent intent) {
     this.intent = intent;
 
-    if (intent.hasExtra(ATTRIBUTE_TIME)) {
-      timeAttribute = intent.getStringExtra(ATTRIBUTE_TIME);
+    if (intent.hasExtra(EXTRA_TIMESTAMP)) {
+      timestamp = intent.getLongExtra(EXTRA_TIMESTAMP, 0);
     } else {
-      timeAttribute = "";
+      timestamp = System.currentTimeMillis();
     }
 
+    // Attributes passed through the intent take precedence over computed ones
+    if (intent.hasExtra(ATTRIBUTE_TIME)) {
+      timeAttribute = intent.getStringExtra(ATTRIBUTE_TIME);
+    }
     if (intent.hasExtra(ATTRIBUTE_LOCATION)) {
       locationAttribute = intent.getStringExtra(ATTRIBUTE_LOCATION);
-    } else {
-      locationAttribute = "";
     }
 
     this.appName = appName;
@@ -83,6 +133,24 @@ public abstract class Event {
     return eventName;
   }
 
+  /**
+   * @return the time the event was received, in milliseconds since the epoch
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Sets the supplier of the {@link #ATTRIBUTE_LOCATION} attribute. It is only called if a filter
+   * or an action reads the location and the intent does not carry it.
+   * 
+   * @param locationSupplier
+   *          the supplier of the location attribute
+   */
+  public void setLocationSupplier(AttributeSupplier locationSupplier) {
+    this.locationSupplier = locationSupplier;
+  }
+
   /**
    * Looks up attributes associated with this event.
    * 
@@ -94,8 +162,14 @@ public abstract class Event {
    */
   public String getAttribute(String attributeName) throws IllegalArgumentException {
     if (attributeName.equals(ATTRIBUTE_TIME)) {
+      if (timeAttribute == null) {
+        timeAttribute = new OmniDate(new Date(timestamp)).toString();
+      }
       return timeAttribute;
     } else if (attributeName.equals(ATTRIBUTE_LOCATION)) {
+      if (locationAttribute == null) {
+        locationAttribute = locationSupplier == null ? "" : locationSupplier.getAttribute(this);
+      }
       return locationAttribute;
     } else {
       throw new IllegalArgumentException();
@@ -103,13 +177,69 @@ public abstract class Event {
   }
 
   /**
-   * @return the parameters of the event as they are passed through the android intent.
+   * Looks up attributes associated with this event through {@link #getAttribute(String)}, caching
+   * the result so that each attribute is only extracted once per event, however many filters read
+   * it.
+   * 
+   * @param attributeName
+   *          the name of the attribute associated with this event
+   * @return the data associated with the attribute
+   * @throws IllegalArgumentException
+   *           if the attribute name is not valid for this event
+   */
+  public String getCachedAttribute(String attributeName) throws IllegalArgumentException {
+    String value = attributeCache.get(attributeName);
+    if (value == null) {
+      value = getAttribute(attributeName);
+      attributeCache.put(attributeName, value);
+    }
+    return value;
+  }
+
+  /**
+   * Returns the data of an attribute parsed into its data type. Each attribute is parsed at most
+   * once per event and data type.
+   * 
+   * @param attributeName
+   *          the name of the attribute associated with this event
+   * @param factory
+   *          the factory of the data type of the attribute
+   * @return the parsed attribute data, or null if it is not valid for the data type
+   * @throws IllegalArgumentException
+   *           if the attribute name is not valid for this event
+   */
+  public DataType getParsedAttribute(String attributeName, DataTypeRegistry.Factory factory)
+      throws IllegalArgumentException {
+    DualKey<String, DataTypeRegistry.Factory> key = new DualKey<String, DataTypeRegistry.Factory>(
+        attributeName, factory);
+    if (parsedAttributeCache.containsKey(key)) {
+      return parsedAttributeCache.get(key);
+    }
+
+    DataType value = DataTypeRegistry.createObject(factory, getCachedAttribute(attributeName));
+    parsedAttributeCache.put(key, value);
+    return value;
+  }
+
+  /**
+   * @return the results of the filters already evaluated for this event
+   */
+  public FilterMemo getFilterMemo() {
+    return filterMemo;
+  }
+
+  /**
+   * @return the parameters of the event as they are passed through the android intent, with the
+   *         formatted time instead of the internal timestamp, and the location if it was already
+   *         looked up.
    */
   public String getParameters() {
-    if (intent.getExtras() != null) {
-      return intent.getExtras().toString();
-    } else {
-      return "";
+    Bundle parameters = intent.getExtras() == null ? new Bundle() : new Bundle(intent.getExtras());
+    parameters.remove(EXTRA_TIMESTAMP);
+    parameters.putString(ATTRIBUTE_TIME, getAttribute(ATTRIBUTE_TIME));
+    if (locationAttribute != null) {
+      parameters.putString(ATTRIBUTE_LOCATION, locationAttribute);
     }
+    return parameters.toString();
   }
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.content.Intent;
+import libretasks.app.controller.util.Logger;
+
+/**
+ * Coalesces bursts of intents with the same action, so that a burst turns into a single pass of the
+ * rule engine. Each coalesced action has a window and a policy:
+ * <ul>
+ * <li>{@link Policy#KEEP_FIRST}: the first intent passes at once and opens the window, the intents
+ * received during the window are dropped.</li>
+ * <li>{@link Policy#KEEP_LAST}: the first intent is held until the end of the window, and replaced
+ * by each intent received during the window. The last one is released when the window ends.</li>
+ * </ul>
+ * Intents with other actions always pass. Times are in milliseconds of
+ * {@link android.os.SystemClock#elapsedRealtime()}.
+ */
+public class EventCoalescer {
+  private static final String TAG = EventCoalescer.class.getSimpleName();
+
+  public enum Policy {
+    KEEP_FIRST, KEEP_LAST
+  }
+
+  /** What to do with an intent offered to the coalescer */
+  public enum Decision {
+    /** Handle the intent now */
+    PASS,
+    /** The intent is held and will be returned by {@link EventCoalescer#releaseDue(long)} */
+    HOLD,
+    /** The intent is coalesced with another one and must not be handled */
+    DROP
+  }
+
+  /**
+   * The coalescing state of one action.
+   */
+  private static class Window {
+    final long length;
+    final Policy policy;
+
+    /** Start of the current window, for KEEP_FIRST */
+    long start = Long.MIN_VALUE;
+
+    /** The intent held until releaseAt, for KEEP_LAST */
+    Intent held;
+    long releaseAt;
+
+    long droppedCount;
+
+    Window(long length, Policy policy) {
+      this.length = length;
+      this.policy = policy;
+    }
+  }
+
+  private final HashMap<String, Window> windows = new HashMap<String, Window>();
+  private long droppedCount;
+
+  /**
+   * Sets how intents with an action are coalesced.
+   * 
+   * @param action
+   *          the intent action
+   * @param length
+   *          the length of the window in milliseconds, 0 to stop coalescing the action
+   * @param policy
+   *          which intent of a burst to keep
+   */
+  public synchronized void setWindow(String action, long length, Policy policy) {
+    Window window = windows.remove(action);
+    if (window != null && window.held != null) {
+      Logger.w(TAG, "Dropped held intent " + action + " while changing its window");
+    }
+    if (length > 0) {
+      windows.put(action, new Window(length, policy));
+    }
+  }
+
+  /**
+   * Decides what to do with a received intent.
+   * 
+   * @param intent
+   *          the intent received
+   * @param now
+   *          the time the intent was received
+   * @return whether to handle the intent now, later or never
+   */
+  public synchronized Decision offer(Intent intent, long now) {
+    Window window = windows.get(intent.getAction());
+    if (window == null) {
+      return Decision.PASS;
+    }
+
+    if (window.policy == Policy.KEEP_FIRST) {
+      if (window.start != Long.MIN_VALUE && now - window.start < window.length) {
+        drop(window, intent);
+        return Decision.DROP;
+      }
+      window.start = now;
+      return Decision.PASS;
+    }
+
+    if (window.held != null) {
+      drop(window, window.held);
+    } else {
+      window.releaseAt = now + window.length;
+    }
+    window.held = intent;
+    return Decision.HOLD;
+  }
+
+  /**
+   * Releases the held intents whose window has ended.
+   * 
+   * @param now
+   *          the current time
+   * @return the intents to handle now, possibly none
+   */
+  public synchronized ArrayList<Intent> releaseDue(long now) {
+    ArrayList<Intent> released = new ArrayList<Intent>();
+    for (Window window : windows.values()) {
+      if (window.held != null && window.releaseAt <= now) {
+        released.add(window.held);
+        window.held = null;
+      }
+    }
+    return released;
+  }
+
+  /**
+   * @return the time at which the next held intent is due, or Long.MAX_VALUE if none is held
+   */
+  public synchronized long getNextRelease() {
+    long next = Long.MAX_VALUE;
+    for (Window window : windows.values()) {
+      if (window.held != null && window.releaseAt < next) {
+        next = window.releaseAt;
+      }
+    }
+    return next;
+  }
+
+  /**
+   * @return true if some intent is held
+   */
+  public boolean hasHeldIntents() {
+    return getNextRelease() != Long.MAX_VALUE;
+  }
+
+  /**
+   * @return the number of intents dropped since the application started
+   */
+  public synchronized long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * @param action
+   *          the intent action
+   * @return the number of intents with the action dropped since its window was set
+   */
+  public synchronized long getDroppedCount(String action) {
+    Window window = windows.get(action);
+    return window == null ? 0 : window.droppedCount;
+  }
+
+  private void drop(Window window, Intent intent) {
+    window.droppedCount++;
+    droppedCount++;
+    Logger.d(TAG, "coalesced " + intent.getAction() + ", " + window.droppedCount
+        + " dropped for this action, " + droppedCount + " in total");
+  }
+}
@@ -0,0 +1,577 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import libretasks.app.R;
+import libretasks.app.controller.bkgservice.BCReceiver;
+import libretasks.app.controller.datatypes.OmniArea;
+import libretasks.app.controller.events.CallEndedEvent;
+import libretasks.app.controller.events.InternetAvailableEvent;
+import libretasks.app.controller.events.LocationChangedEvent;
+import libretasks.app.controller.events.MissedCallEvent;
+import libretasks.app.controller.events.PhoneRingingEvent;
+import libretasks.app.controller.events.ServiceAvailableEvent;
+import libretasks.app.controller.events.TimeTickEvent;
+import libretasks.app.controller.external.attributes.LocationSnapshot;
+import libretasks.app.controller.util.DataTypeValidationException;
+import libretasks.app.controller.util.Logger;
+import libretasks.app.controller.util.OmnidroidException;
+import libretasks.app.model.ActionLog;
+import libretasks.app.model.CoreActionsDbHelper;
+import libretasks.app.model.EventLog;
+import libretasks.app.model.FailedActionsDbHelper;
+import libretasks.app.model.GeneralLog;
+import libretasks.app.model.LogSink;
+import libretasks.app.model.db.SharedDatabase;
+import libretasks.app.view.simple.UtilUI;
+
+/**
+ * This class is the heart of Omnidroid. The system intents received by {@link BCReceiver} are put in
+ * a bounded {@link EventScheduler} and handled one at a time by a background worker thread, the
+ * telephony and SMS events before the others and the time ticks and location changes last. When
+ * events arrive faster than they are handled, the lowest priority ones are shed first and the
+ * number of shed events is written to the general log periodically. For each intent the
+ * worker calls {@link IntentParser} to create an {@link Event} if it is supported by Omnidroid. The
+ * event is passed to the {@link RuleProcessor} to see if the event's attributes are matched by the
+ * parameters of the user's defined {@link Rule}. The {@link Action}(s) of any rules that match are
+ * passed to ActionExecuter where they are packaged into system intents and run.
+ * <p>
+ * The worker keeps its database connections open as long as events keep coming, and closes them
+ * and stops after being idle for {@link #IDLE_TIMEOUT} milliseconds. It is started again by the
+ * next event.
+ * </p>
+ * <p>
+ * Bursts of the events broadcast by the monitors on every change are coalesced by an
+ * {@link EventCoalescer} before being queued.
+ * </p>
+ */
+public class EventDispatcher {
+  private static final String TAG = EventDispatcher.class.getSimpleName();
+
+  /** Maximum number of intents waiting to be handled, further intents are shed */
+  private static final int QUEUE_CAPACITY = 64;
+
+  /** Time after which an idle worker closes its database connections and stops */
+  private static final long IDLE_TIMEOUT = 5 * 60 * 1000;
+
+  /** Default coalescing windows of the monitor events */
+  private static final long LOCATION_CHANGED_WINDOW = 10 * 1000;
+  private static final long CONNECTIVITY_WINDOW = 30 * 1000;
+
+  /** Deadlines of the low priority events, they are superseded by the next ones anyway */
+  private static final long TIME_TICK_DEADLINE = 60 * 1000;
+  private static final long LOCATION_CHANGED_DEADLINE = 2 * 60 * 1000;
+
+  /** Budget of each type of telephony and SMS events, as a multiple of the global budget */
+  private static final int HIGH_PRIORITY_BUDGET_FACTOR = 2;
+
+  /** Minimum time between two reports of the shed events in the general log */
+  private static final long SHED_REPORT_INTERVAL = 60 * 1000;
+
+  /** Maximum age of the shared location fix before the location service is queried again */
+  private static final long LOCATION_MAX_AGE = 5 * 60 * 1000;
+
+  private static EventDispatcher instance;
+
+  private final Context context;
+  private final EventScheduler scheduler = new EventScheduler(QUEUE_CAPACITY);
+  private final EventCoalescer coalescer = new EventCoalescer();
+
+  /** Writes the logs in the background, off the path from an event to its actions */
+  private final LogSink logSink;
+
+  /** Limits the events and rule firings per minute, the global limit follows the preference */
+  private final EventThrottle throttle;
+
+  /** Suppresses identical actions of different rules, only within one event unless set otherwise */
+  private final ActionDeduplicator deduplicator = new ActionDeduplicator(0);
+
+  /** Looks up the location of the events whose filters or actions read it */
+  private final Event.AttributeSupplier locationSupplier = new Event.AttributeSupplier() {
+    public String getAttribute(Event event) {
+      return getLocationData();
+    }
+  };
+
+  /** The running worker, or null if there is none */
+  private Worker worker;
+
+  // Statistics, latencies are in milliseconds from reception to the end of handling
+  private final AtomicLong dispatchedCount = new AtomicLong();
+  private final AtomicLong handledCount = new AtomicLong();
+  private final AtomicLong totalLatency = new AtomicLong();
+  private volatile long lastLatency;
+  private volatile long maxLatency;
+
+  private EventDispatcher(Context context) {
+    this.context = context;
+    throttle = new EventThrottle(context);
+    logSink = LogSink.getInstance(context);
+
+    // Only the latest location matters, a flapping connection only needs to trigger once
+    coalescer.setWindow(LocationChangedEvent.ACTION_NAME, LOCATION_CHANGED_WINDOW,
+        EventCoalescer.Policy.KEEP_LAST);
+    coalescer.setWindow(InternetAvailableEvent.ACTION_NAME, CONNECTIVITY_WINDOW,
+        EventCoalescer.Policy.KEEP_FIRST);
+    coalescer.setWindow(ServiceAvailableEvent.ACTION_NAME, CONNECTIVITY_WINDOW,
+        EventCoalescer.Policy.KEEP_FIRST);
+
+    // Telephony and SMS events preempt the periodic and location events
+    scheduler.setPolicy(IntentParser.SMS_INTENT_ACTION, EventScheduler.PRIORITY_HIGH,
+        EventScheduler.NO_DEADLINE);
+    scheduler.setPolicy(PhoneRingingEvent.ACTION_NAME, EventScheduler.PRIORITY_HIGH,
+        EventScheduler.NO_DEADLINE);
+    scheduler.setPolicy(CallEndedEvent.ACTION_NAME, EventScheduler.PRIORITY_HIGH,
+        EventScheduler.NO_DEADLINE);
+    scheduler.setPolicy(MissedCallEvent.ACTION_NAME, EventScheduler.PRIORITY_HIGH,
+        EventScheduler.NO_DEADLINE);
+    // They still go through the throttle, an auto-reply rule may loop with another device
+    throttle.setEventBudgetFactor(IntentParser.SMS_INTENT_ACTION, HIGH_PRIORITY_BUDGET_FACTOR);
+    throttle.setEventBudgetFactor(PhoneRingingEvent.ACTION_NAME, HIGH_PRIORITY_BUDGET_FACTOR);
+    throttle.setEventBudgetFactor(CallEndedEvent.ACTION_NAME, HIGH_PRIORITY_BUDGET_FACTOR);
+    throttle.setEventBudgetFactor(MissedCallEvent.ACTION_NAME, HIGH_PRIORITY_BUDGET_FACTOR);
+    scheduler.setPolicy(TimeTickEvent.ACTION_NAME, EventScheduler.PRIORITY_LOW,
+        TIME_TICK_DEADLINE);
+    scheduler.setPolicy(LocationChangedEvent.ACTION_NAME, EventScheduler.PRIORITY_LOW,
+        LOCATION_CHANGED_DEADLINE);
+  }
+
+  /**
+   * @param context
+   *          any context of the application
+   * @return the dispatcher of the application
+   */
+  public static synchronized EventDispatcher getInstance(Context context) {
+    if (instance == null) {
+      instance = new EventDispatcher(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * Queues an intent to be handled by the worker thread, starting it if necessary.
+   * 
+   * @param intent
+   *          the intent received
+   * @return true if the intent was queued or held for coalescing, false if it was dropped because
+   *         it was coalesced or shed because the queue is full of higher priority intents
+   */
+  public boolean dispatch(Intent intent) {
+    // Record the time of the event now rather than when it is handled
+    if (!intent.hasExtra(Event.EXTRA_TIMESTAMP)) {
+      intent.putExtra(Event.EXTRA_TIMESTAMP, System.currentTimeMillis());
+    }
+
+    long now = SystemClock.elapsedRealtime();
+    EventCoalescer.Decision decision = coalescer.offer(intent, now);
+    if (decision == EventCoalescer.Decision.DROP) {
+      return false;
+    } else if (decision == EventCoalescer.Decision.HOLD) {
+      // A running worker may be waiting past the release of the held intent
+      startWorker();
+      scheduler.wakeUp();
+      return true;
+    }
+    return enqueue(intent, now);
+  }
+
+  /**
+   * @return the coalescer of the monitor events, to change their windows
+   */
+  public EventCoalescer getCoalescer() {
+    return coalescer;
+  }
+
+  /**
+   * @return the deduplicator of the actions, to change its window
+   */
+  public ActionDeduplicator getDeduplicator() {
+    return deduplicator;
+  }
+
+  /**
+   * @return the throttle limiting the events and rule firings, to set the budgets of event types
+   */
+  public EventThrottle getThrottle() {
+    return throttle;
+  }
+
+  /**
+   * @return the scheduler of the queued intents, to change the priorities and deadlines
+   */
+  public EventScheduler getScheduler() {
+    return scheduler;
+  }
+
+  private boolean enqueue(Intent intent, long now) {
+    if (!scheduler.offer(intent, now)) {
+      // Reported with the other shed intents, see Worker.reportShedding
+      Log.d(TAG, "Event queue is full, shed intent " + intent.getAction());
+      return false;
+    }
+    dispatchedCount.incrementAndGet();
+    startWorker();
+    return true;
+  }
+
+  /**
+   * @return the number of intents waiting to be handled
+   */
+  public int getQueueDepth() {
+    return scheduler.size();
+  }
+
+  /**
+   * @return the number of intents queued since the application started
+   */
+  public long getDispatchedCount() {
+    return dispatchedCount.get();
+  }
+
+  /**
+   * @return the number of intents shed because of the load, the throttle or their deadline
+   */
+  public long getDroppedCount() {
+    return scheduler.getShedCount();
+  }
+
+  /**
+   * @return the number of intents handled since the application started
+   */
+  public long getHandledCount() {
+    return handledCount.get();
+  }
+
+  /**
+   * @return the time between the reception and the end of handling of the last intent, in ms
+   */
+  public long getLastLatency() {
+    return lastLatency;
+  }
+
+  /**
+   * @return the longest time between the reception and the end of handling of an intent, in ms
+   */
+  public long getMaxLatency() {
+    return maxLatency;
+  }
+
+  /**
+   * @return the average time between the reception and the end of handling of intents, in ms
+   */
+  public long getAverageLatency() {
+    long count = handledCount.get();
+    return count == 0 ? 0 : totalLatency.get() / count;
+  }
+
+  private synchronized void startWorker() {
+    if (worker == null) {
+      worker = new Worker();
+      worker.start();
+    }
+  }
+
+  /**
+   * Lets a worker stop if no intent is waiting.
+   * 
+   * @return true if the worker has to stop
+   */
+  private synchronized boolean stopWorkerIfIdle(Worker idleWorker) {
+    if (scheduler.isEmpty() && !coalescer.hasHeldIntents()) {
+      if (worker == idleWorker) {
+        worker = null;
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private synchronized void workerStopped(Worker stoppedWorker) {
+    if (worker == stoppedWorker) {
+      worker = null;
+    }
+  }
+
+  private void recordLatency(EventScheduler.Entry queued) {
+    long latency = SystemClock.elapsedRealtime() - queued.receivedAt;
+    handledCount.incrementAndGet();
+    totalLatency.addAndGet(latency);
+    lastLatency = latency;
+    if (latency > maxLatency) {
+      maxLatency = latency;
+    }
+    Logger.d(TAG, "handled " + queued.intent.getAction() + " in " + latency + " ms, "
+        + scheduler.size() + " intent(s) queued, " + getAverageLatency() + " ms on average");
+  }
+
+  /**
+   * Thread handling the queued intents, with the database connections it uses.
+   */
+  private class Worker extends Thread {
+    private CoreActionsDbHelper coreActionsDbHelper;
+    private FailedActionsDbHelper failedActionsDbHelper;
+
+    /** Whether events are being dropped by the throttle, the user is only notified once */
+    private boolean throttling;
+
+    /** Time of the last report of the shed intents */
+    private long lastShedReport = SystemClock.elapsedRealtime();
+
+    Worker() {
+      super(TAG);
+    }
+
+    @Override
+    public void run() {
+      Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+      try {
+        while (true) {
+          // Wake up when the next coalesced intent is due
+          long timeout = Math.min(IDLE_TIMEOUT, coalescer.getNextRelease()
+              - SystemClock.elapsedRealtime());
+          EventScheduler.Entry queued = scheduler.poll(Math.max(0, timeout));
+
+          // Released intents are scheduled according to their priority like the others
+          long now = SystemClock.elapsedRealtime();
+          for (Intent released : coalescer.releaseDue(now)) {
+            if (scheduler.offer(released, now)) {
+              dispatchedCount.incrementAndGet();
+            }
+          }
+
+          if (queued != null) {
+            handle(queued);
+            reportShedding(false);
+          } else if (stopWorkerIfIdle(this)) {
+            reportShedding(true);
+            break;
+          }
+        }
+      } catch (InterruptedException e) {
+        Logger.w(TAG, "Worker interrupted, " + scheduler.size() + " intent(s) left in queue");
+      } finally {
+        closeDatabases();
+        workerStopped(this);
+      }
+    }
+
+    private void handle(EventScheduler.Entry queued) {
+      try {
+        openDatabases();
+        handleIntent(queued.intent);
+      } catch (RuntimeException e) {
+        Logger.e(TAG, "Failed to handle intent " + queued.intent.getAction(), e);
+      }
+      recordLatency(queued);
+    }
+
+    private void openDatabases() {
+      if (coreActionsDbHelper == null) {
+        coreActionsDbHelper = new CoreActionsDbHelper(context);
+      }
+      if (failedActionsDbHelper == null) {
+        failedActionsDbHelper = new FailedActionsDbHelper(context);
+      }
+    }
+
+    private void closeDatabases() {
+      if (coreActionsDbHelper != null) {
+        coreActionsDbHelper.close();
+        coreActionsDbHelper = null;
+      }
+      if (failedActionsDbHelper != null) {
+        failedActionsDbHelper.close();
+        failedActionsDbHelper = null;
+      }
+      Logger.d(TAG, "database connection opened " + SharedDatabase.getConnectionsOpened()
+          + " time(s), " + SharedDatabase.getSessionsOpened() + " session(s) opened, "
+          + SharedDatabase.getSessionsClosed() + " closed, "
+          + SharedDatabase.getActiveSessions() + " active");
+    }
+
+    /**
+     * Gets the event type from the intent, checks it against defined rules, and launches any
+     * triggered actions
+     * 
+     * @param intent
+     *          the intent received
+     */
+    private void handleIntent(Intent intent) {
+      Event event = IntentParser.getEvent(intent);
+
+      if (event == null) {
+        return;
+      }
+      event.setLocationSupplier(locationSupplier);
+
+      // Log the event that occurred, the logs are written in the background
+      EventLog logEvent = new EventLog(event);
+      logSink.append(logEvent);
+
+      // Don't run if we're over our throttle threshold, telephony and SMS events have their own
+      // larger budget
+      if (throttled(intent.getAction())) {
+        scheduler.recordShed(intent);
+        return;
+      }
+
+      // Get a list of actions that apply to this event, rules are served from the in-memory index
+      ArrayList<Action> actions = RuleProcessor.getActions(context, event, coreActionsDbHelper,
+          deduplicator, throttle);
+
+      // Log the actions taking place
+      for (Action action : actions) {
+        logSink.append(new ActionLog(action, null), logEvent);
+      }
+
+      // Create a general log about what is going on
+      GeneralLog generalLog = new GeneralLog(TAG + " got " + actions.size()
+          + " action(s) for event " + intent.getAction(), Logger.INFO);
+      logSink.append(generalLog);
+      Logger.d(TAG, "got " + actions.size() + " action(s) for event " + intent.getAction());
+
+      // Execute the list of actions, the actions of different rules in parallel
+      try {
+        ActionExecuter.executeActionsConcurrently(context, actions);
+      } catch (OmnidroidException e) {
+        Logger.w(TAG, e.toString(), e);
+        Logger.w(TAG, e.getLocalizedMessage());
+        Logger.w(TAG, "Illegal Execution Method");
+      } finally {
+        actions.clear();
+      }
+
+      if (event.getEventName().equals(InternetAvailableEvent.EVENT_NAME)) {
+        actions = failedActionsDbHelper.getActions(ResultProcessor.RESULT_FAILURE_INTERNET);
+      } else if (event.getEventName().equals(ServiceAvailableEvent.EVENT_NAME)) {
+        actions = failedActionsDbHelper.getActions(ResultProcessor.RESULT_FAILURE_SERVICE);
+      } else if (event.getEventName().equals(TimeTickEvent.EVENT_NAME)) {
+        failedActionsDbHelper.deleteOldActions();
+        actions = failedActionsDbHelper.getActions(ResultProcessor.RESULT_FAILURE_UNKNOWN);
+      }
+      try {
+        Logger.i(TAG, "Retrying to execute queued actions");
+        ActionExecuter.executeActionsConcurrently(context, actions);
+      } catch (OmnidroidException e) {
+        Logger.w(TAG, e.toString(), e);
+      }
+    }
+
+    /**
+     * Writes the number of intents shed since the last report to the general log, at most once per
+     * {@link EventDispatcher#SHED_REPORT_INTERVAL} unless forced.
+     * 
+     * @param force
+     *          true to report now, when the worker stops
+     */
+    private void reportShedding(boolean force) {
+      long now = SystemClock.elapsedRealtime();
+      if (!force && now - lastShedReport < SHED_REPORT_INTERVAL) {
+        return;
+      }
+      lastShedReport = now;
+
+      Map<String, Integer> counts = scheduler.drainShedCounts();
+      if (counts.isEmpty()) {
+        return;
+      }
+      int total = 0;
+      StringBuilder details = new StringBuilder();
+      for (Map.Entry<String, Integer> count : counts.entrySet()) {
+        total += count.getValue();
+        details.append(details.length() == 0 ? "" : ", ").append(count.getKey()).append(": ")
+            .append(count.getValue());
+      }
+
+      String log = TAG + " shed " + total + " event(s) under load (" + details + ")";
+      Logger.w(TAG, log);
+      logSink.append(new GeneralLog(log, Logger.WARN));
+    }
+
+    /**
+     * Counts the event against the budgets of the {@link EventThrottle}, without database access.
+     * 
+     * @param action
+     *          the intent action of the event
+     * @return true if over throttle limit, false otherwise.
+     */
+    private boolean throttled(String action) {
+      /*
+       * See how many events we've taken in the last minute and if it's higher than our throttle
+       * limit, then log/notify that this event is being ignored due to a possible loop or abuse.
+       */
+      if (!throttle.recordEvent(action)) {
+        throttling = false;
+        return false;
+      }
+
+      // Further events dropped by the throttle are reported with the shed events
+      if (throttling) {
+        return true;
+      }
+      throttling = true;
+
+      // Log event to logcat
+      String log = context.getString(R.string.throttle_alert_msg, throttle.getBudget(action),
+          throttle.getEventCount(action));
+      Logger.w(TAG, log);
+
+      // Log event in DB
+      GeneralLog generalLog = new GeneralLog(log, Logger.INFO);
+      logSink.append(generalLog);
+
+      // Send user notification
+      UtilUI.showNotification(context, UtilUI.NOTIFICATION_WARN,
+          context.getString(R.string.throttle_alert_title), log.toString());
+      return true;
+    }
+  }
+
+  /**
+   * Gets the shared location fix, called when an event's location is first read. The location
+   * service is only queried if the fix is older than {@link #LOCATION_MAX_AGE}.
+   * 
+   * @return the location as an {@link OmniArea} string, or an empty string if it is not available
+   */
+  private String getLocationData() {
+    LocationSnapshot location = LocationSnapshot.get(context, LOCATION_MAX_AGE);
+    if (location == null) {
+      /*
+       * Use the normal logging since this case happens quite often, and we don't want to clutter
+       * the logs.
+       */
+      Log.i(TAG, context.getString(R.string.location_not_available));
+      return "";
+    }
+
+    try {
+      return location.toOmniArea().toString();
+    } catch (DataTypeValidationException e) {
+      Logger.w(TAG, context.getString(R.string.location_unknown_error), e);
+      return "";
+    }
+  }
+}
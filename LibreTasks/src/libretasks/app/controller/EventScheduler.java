@@ -0,0 +1,263 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.content.Intent;
+import android.os.SystemClock;
+
+/**
+ * A bounded queue of intents ordered by the priority of their action, first in first out within a
+ * priority. Each action may also have a deadline after which its intents are not worth handling
+ * anymore.
+ * <p>
+ * When the queue is full, the oldest intent of the lowest priority below the offered one is shed to
+ * make room, so that bursts of low priority events such as time ticks never keep telephony events
+ * waiting. Intents past their deadline are shed when they reach the head of the queue. The shed
+ * intents are counted by action until {@link #drainShedCounts()} is called, so that they can be
+ * reported together. Times are in milliseconds of {@link SystemClock#elapsedRealtime()}.
+ * </p>
+ */
+public class EventScheduler {
+  public static final int PRIORITY_LOW = 0;
+  public static final int PRIORITY_NORMAL = 1;
+  public static final int PRIORITY_HIGH = 2;
+
+  /** Deadline of the intents which are always worth handling */
+  public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+  /**
+   * An intent waiting to be handled, with the time it was received.
+   */
+  public static class Entry {
+    public final Intent intent;
+    public final long receivedAt;
+    final int priority;
+    final long deadline;
+
+    Entry(Intent intent, long receivedAt, int priority, long deadline) {
+      this.intent = intent;
+      this.receivedAt = receivedAt;
+      this.priority = priority;
+      this.deadline = deadline;
+    }
+
+    boolean isExpired(long now) {
+      return deadline != NO_DEADLINE && now - receivedAt > deadline;
+    }
+  }
+
+  /**
+   * How the intents of one action are scheduled.
+   */
+  private static class Policy {
+    final int priority;
+    final long deadline;
+
+    Policy(int priority, long deadline) {
+      this.priority = priority;
+      this.deadline = deadline;
+    }
+  }
+
+  private static final Policy DEFAULT_POLICY = new Policy(PRIORITY_NORMAL, NO_DEADLINE);
+
+  private final int capacity;
+  private final HashMap<String, Policy> policies = new HashMap<String, Policy>();
+
+  /** The queued intents, by priority */
+  @SuppressWarnings("unchecked")
+  private final LinkedList<Entry>[] levels = new LinkedList[PRIORITY_HIGH + 1];
+  private int size;
+
+  /** Set by {@link #wakeUp()} to make the pending or next poll return early */
+  private boolean wokenUp;
+
+  /** Intents shed since the counts were last drained, by action */
+  private final HashMap<String, Integer> shedCounts = new HashMap<String, Integer>();
+  private long totalShedCount;
+
+  /**
+   * @param capacity
+   *          the maximum number of intents waiting to be handled
+   */
+  public EventScheduler(int capacity) {
+    this.capacity = capacity;
+    for (int i = 0; i < levels.length; i++) {
+      levels[i] = new LinkedList<Entry>();
+    }
+  }
+
+  /**
+   * Sets how the intents with an action are scheduled, the intents of other actions have a normal
+   * priority and no deadline.
+   * 
+   * @param action
+   *          the intent action
+   * @param priority
+   *          one of {@link #PRIORITY_LOW}, {@link #PRIORITY_NORMAL} and {@link #PRIORITY_HIGH}
+   * @param deadline
+   *          the time after reception the intents are shed if they are not handled yet, or
+   *          {@link #NO_DEADLINE}
+   */
+  public synchronized void setPolicy(String action, int priority, long deadline) {
+    if (priority < PRIORITY_LOW || priority > PRIORITY_HIGH) {
+      throw new IllegalArgumentException("Invalid priority " + priority);
+    }
+    policies.put(action, new Policy(priority, deadline));
+  }
+
+  /**
+   * @param action
+   *          an intent action
+   * @return the priority of the intents with this action
+   */
+  public synchronized int getPriority(String action) {
+    return getPolicy(action).priority;
+  }
+
+  /**
+   * Queues an intent, shedding a lower priority intent if the queue is full.
+   * 
+   * @param intent
+   *          the intent received
+   * @param now
+   *          the current time
+   * @return true if the intent was queued, false if it was shed because the queue is full of
+   *         intents with the same or a higher priority
+   */
+  public synchronized boolean offer(Intent intent, long now) {
+    Policy policy = getPolicy(intent.getAction());
+    if (size >= capacity) {
+      LinkedList<Entry> lowest = null;
+      for (int i = PRIORITY_LOW; i < policy.priority && lowest == null; i++) {
+        if (!levels[i].isEmpty()) {
+          lowest = levels[i];
+        }
+      }
+      if (lowest == null) {
+        shed(intent);
+        return false;
+      }
+      shed(lowest.removeFirst().intent);
+      size--;
+    }
+
+    levels[policy.priority].addLast(new Entry(intent, now, policy.priority, policy.deadline));
+    size++;
+    notifyAll();
+    return true;
+  }
+
+  /**
+   * Takes the oldest intent with the highest priority, shedding the intents past their deadline.
+   * 
+   * @param timeout
+   *          the maximum time to wait for an intent, in milliseconds
+   * @return the intent, or null if none was queued before the timeout or {@link #wakeUp()} was
+   *         called
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting
+   */
+  public synchronized Entry poll(long timeout) throws InterruptedException {
+    long end = SystemClock.elapsedRealtime() + timeout;
+    while (true) {
+      long now = SystemClock.elapsedRealtime();
+      for (int i = PRIORITY_HIGH; i >= PRIORITY_LOW; i--) {
+        while (!levels[i].isEmpty()) {
+          Entry entry = levels[i].removeFirst();
+          size--;
+          if (!entry.isExpired(now)) {
+            return entry;
+          }
+          shed(entry.intent);
+        }
+      }
+
+      if (now >= end || wokenUp) {
+        wokenUp = false;
+        return null;
+      }
+      wait(end - now);
+    }
+  }
+
+  /**
+   * Makes the thread waiting in {@link #poll(long)} return without an intent, so that it can work
+   * out its timeout again, for instance when an intent is held until a new release time.
+   */
+  public synchronized void wakeUp() {
+    wokenUp = true;
+    notifyAll();
+  }
+
+  /**
+   * Counts an intent that will not be handled, for a reason decided outside of the scheduler.
+   * 
+   * @param intent
+   *          the intent that is not handled
+   */
+  public synchronized void recordShed(Intent intent) {
+    shed(intent);
+  }
+
+  /**
+   * @return the number of intents waiting to be handled
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * @return true if no intent is waiting to be handled
+   */
+  public synchronized boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return the number of intents shed since the application started
+   */
+  public synchronized long getShedCount() {
+    return totalShedCount;
+  }
+
+  /**
+   * Returns the number of intents shed by action since the last call, and resets them.
+   * 
+   * @return the counts by action, empty if no intent was shed
+   */
+  public synchronized Map<String, Integer> drainShedCounts() {
+    HashMap<String, Integer> counts = new HashMap<String, Integer>(shedCounts);
+    shedCounts.clear();
+    return counts;
+  }
+
+  private Policy getPolicy(String action) {
+    Policy policy = policies.get(action);
+    return policy == null ? DEFAULT_POLICY : policy;
+  }
+
+  private void shed(Intent intent) {
+    Integer count = shedCounts.get(intent.getAction());
+    shedCounts.put(intent.getAction(), count == null ? 1 : count + 1);
+    totalShedCount++;
+  }
+}
@@ -0,0 +1,261 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import java.util.HashMap;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.os.SystemClock;
+import libretasks.app.R;
+import libretasks.app.controller.util.Logger;
+
+/**
+ * Limits the number of events and rule firings per minute, to stop looping rules. Three budgets
+ * apply over a sliding window of one minute:
+ * <ul>
+ * <li>a global budget of events, set by the throttle preference and updated when it changes</li>
+ * <li>budgets per event type, by intent action, as multiples of the global budget; events with
+ * their own budget are counted against it instead of the global one</li>
+ * <li>a budget per rule, by rule id, equal to the global budget, which stops a looping rule fed
+ * by events with a larger budget of their own</li>
+ * </ul>
+ * A budget of {@link #UNLIMITED} disables the limit. The counts are kept in memory in buckets of
+ * one second, so that recording an event takes constant time and never touches the database.
+ */
+public class EventThrottle {
+  private static final String TAG = EventThrottle.class.getSimpleName();
+
+  /** Budget disabling a limit, also the value of the disabled throttle preference */
+  public static final int UNLIMITED = 0;
+
+  /** Default of the throttle preference (stored in string form) */
+  private static final String THROTTLE_DEFAULT = "10";
+
+  /** Length of the sliding window in seconds */
+  private static final int WINDOW_SECONDS = 60;
+
+  /**
+   * Number of hits in the last {@link EventThrottle#WINDOW_SECONDS} seconds, counted by second.
+   */
+  private static class SlidingWindow {
+    private final int[] buckets = new int[WINDOW_SECONDS];
+
+    /** Second of the latest bucket */
+    private long currentSecond;
+    private int total;
+
+    /**
+     * Records a hit.
+     * 
+     * @return the number of hits in the window, including this one
+     */
+    int hit(long second) {
+      advance(second);
+      buckets[(int) (second % WINDOW_SECONDS)]++;
+      return ++total;
+    }
+
+    /**
+     * @return the number of hits in the window
+     */
+    int count(long second) {
+      advance(second);
+      return total;
+    }
+
+    /** Empties the buckets of the seconds which left the window */
+    private void advance(long second) {
+      if (second <= currentSecond) {
+        return;
+      }
+      long expired = Math.min(second - currentSecond, WINDOW_SECONDS);
+      for (long i = 1; i <= expired; i++) {
+        int bucket = (int) ((currentSecond + i) % WINDOW_SECONDS);
+        total -= buckets[bucket];
+        buckets[bucket] = 0;
+      }
+      currentSecond = second;
+    }
+  }
+
+  private final Context context;
+
+  private int globalBudget;
+  private final HashMap<String, Integer> eventBudgetFactors = new HashMap<String, Integer>();
+
+  private final SlidingWindow globalWindow = new SlidingWindow();
+  private final HashMap<String, SlidingWindow> eventWindows = new HashMap<String, SlidingWindow>();
+  private final HashMap<Long, SlidingWindow> ruleWindows = new HashMap<Long, SlidingWindow>();
+
+  private long throttledEventCount;
+  private long throttledRuleCount;
+
+  /** Kept as a field, the preferences only hold weak references to their listeners */
+  private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener =
+      new SharedPreferences.OnSharedPreferenceChangeListener() {
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+          if (context.getString(R.string.pref_key_throttle).equals(key)) {
+            loadGlobalBudget(prefs);
+          }
+        }
+      };
+
+  /**
+   * Creates a throttle whose global budget follows the throttle preference.
+   * 
+   * @param context
+   *          the application context to read the preference
+   */
+  public EventThrottle(Context context) {
+    this.context = context;
+    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+    loadGlobalBudget(prefs);
+    prefs.registerOnSharedPreferenceChangeListener(preferenceListener);
+  }
+
+  /**
+   * Records an event and checks it against the budget of its type, or the global budget if its
+   * type has none.
+   * 
+   * @param action
+   *          the intent action of the event
+   * @return true if the event is over budget and should not run the rules
+   */
+  public synchronized boolean recordEvent(String action) {
+    boolean overBudget = isOver(getWindow(action).hit(getSecond()), getBudget(action));
+    if (overBudget) {
+      throttledEventCount++;
+    }
+    return overBudget;
+  }
+
+  /**
+   * Records that a rule fires and checks it against its budget.
+   * 
+   * @param ruleId
+   *          the database id of the rule, rule names are not unique
+   * @return true if the rule is over budget and its actions should not run
+   */
+  public synchronized boolean recordRule(long ruleId) {
+    if (globalBudget == UNLIMITED) {
+      return false;
+    }
+
+    boolean overBudget = isOver(getWindow(ruleWindows, ruleId).hit(getSecond()), globalBudget);
+    if (overBudget) {
+      throttledRuleCount++;
+    }
+    return overBudget;
+  }
+
+  /**
+   * @return the global budget of events per minute, or {@link #UNLIMITED}
+   */
+  public synchronized int getGlobalBudget() {
+    return globalBudget;
+  }
+
+  /**
+   * @param action
+   *          the intent action of the events
+   * @return the number of events per minute allowed for this type, or {@link #UNLIMITED}
+   */
+  public synchronized int getBudget(String action) {
+    Integer factor = eventBudgetFactors.get(action);
+    return factor == null ? globalBudget : globalBudget * factor;
+  }
+
+  /**
+   * @param action
+   *          the intent action of the events
+   * @return the number of events in the last minute counted against the budget of this type
+   */
+  public synchronized int getEventCount(String action) {
+    return getWindow(action).count(getSecond());
+  }
+
+  /**
+   * Gives the events of a type their own budget, so that they keep running when other events use
+   * up the global budget while a loop of these events is still stopped.
+   * 
+   * @param action
+   *          the intent action of the events
+   * @param factor
+   *          the budget of this type as a multiple of the global budget, at least 1
+   */
+  public synchronized void setEventBudgetFactor(String action, int factor) {
+    if (factor < 1) {
+      throw new IllegalArgumentException("Invalid factor " + factor);
+    }
+    eventBudgetFactors.put(action, factor);
+  }
+
+  /**
+   * @return the number of events over budget since the application started
+   */
+  public synchronized long getThrottledEventCount() {
+    return throttledEventCount;
+  }
+
+  /**
+   * @return the number of rule firings over budget since the application started
+   */
+  public synchronized long getThrottledRuleCount() {
+    return throttledRuleCount;
+  }
+
+  private synchronized void loadGlobalBudget(SharedPreferences prefs) {
+    /* Unfortunately Android doesn't support integer based arrays with the ListPreference
+     * interface, so we have to convert an integer back from a string.  See:
+     * http://code.google.com/p/android/issues/detail?id=2096
+     */
+    String sThrottle = prefs.getString(context.getString(R.string.pref_key_throttle),
+        THROTTLE_DEFAULT);
+    try {
+      globalBudget = Integer.parseInt(sThrottle);
+    } catch (NumberFormatException e) {
+      Logger.w(TAG, "Invalid throttle " + sThrottle + ", using " + THROTTLE_DEFAULT);
+      globalBudget = Integer.parseInt(THROTTLE_DEFAULT);
+    }
+  }
+
+  private static boolean isOver(int count, int budget) {
+    return budget != UNLIMITED && count > budget;
+  }
+
+  /**
+   * @return the window the events of this type are counted in
+   */
+  private SlidingWindow getWindow(String action) {
+    return eventBudgetFactors.containsKey(action) ? getWindow(eventWindows, action) : globalWindow;
+  }
+
+  private static <K> SlidingWindow getWindow(HashMap<K, SlidingWindow> windows, K key) {
+    SlidingWindow window = windows.get(key);
+    if (window == null) {
+      window = new SlidingWindow();
+      windows.put(key, window);
+    }
+    return window;
+  }
+
+  private static long getSecond() {
+    return SystemClock.elapsedRealtime() / 1000;
+  }
+}
@@ -33,10 +33,6 @@
  *******************************************************************************/
 package libretasks.app.controller;
 
-import android.util.Log;
-import libretasks.app.controller.datatypes.DataType;
-import libretasks.app.controller.datatypes.FactoryDataType;
-
 /**
  * This class contains a user defined filter, which will be checked against an event's attribute
  * data to see if the event matches the user defined {@link Rule}.
@@ -49,6 +45,9 @@ public class Filter {
   public final String compareWithDataType;
   public final String compareWithData;
 
+  /** The compiled form of this filter, built on first use */
+  private volatile FilterPredicate predicate;
+
   /**
    * Creates a new {@link Filter} on an event's attribute data
    * 
@@ -86,14 +85,23 @@ public class Filter {
    * @return true if the event data passes the filter, false otherwise
    */
   public boolean match(Event event) {
-    String eventAttributeData = event.getAttribute(eventAttribute);
-    //the attribute data we get from the event
-    DataType leftHandSide = FactoryDataType.createObject(filterOnDataType, eventAttributeData);
-    DataType.Filter comparisonFilter = FactoryDataType.getFilterFromString(filterOnDataType,
-        filter);
-    Log.d("match", "filterOnDataType is : " + filterOnDataType + " comparison is : " + filter);
-    DataType rightHandSide = FactoryDataType.createObject(compareWithDataType, compareWithData);
-    return leftHandSide.matchFilter(comparisonFilter, rightHandSide);
+    // Equal filters of other rules may already have been evaluated for this event
+    return event.getFilterMemo().match(this, event);
+  }
+
+  /**
+   * Returns the compiled form of this filter, compiling it if this has not been done yet. Filters
+   * never change, so the predicate is built only once and reused for every event.
+   * 
+   * @return the predicate for this filter
+   */
+  public FilterPredicate getPredicate() {
+    FilterPredicate result = predicate;
+    if (result == null) {
+      result = new FilterPredicate(this);
+      predicate = result;
+    }
+    return result;
   }
 
   @Override
@@ -0,0 +1,50 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import java.util.BitSet;
+
+/**
+ * An index over the {@link Filter}s of the rules triggered by one type of event, used by
+ * {@link RuleSet} to skip rules which cannot match an event. Rules are identified by their position
+ * in the rule set.
+ */
+public interface FilterIndex {
+
+  /**
+   * Offers a filter of a rule to the index. If the index accepts the filter as a guard, it must
+   * report the rule as a candidate for every event for which the filter may match, so the branch
+   * below this filter does not need to be guarded by other filters.
+   * 
+   * @param filter
+   *          a filter of the rule
+   * @param rulePosition
+   *          the position of the rule in its rule set
+   * @return true if the filter is a guard of this index, false otherwise
+   */
+  public boolean addGuard(Filter filter, int rulePosition);
+
+  /**
+   * Marks all rules with a guard in this index which may match the event.
+   * 
+   * @param event
+   *          the event to match
+   * @param candidates
+   *          the positions of candidate rules, to be set by this index
+   */
+  public void collectCandidates(Event event, BitSet candidates);
+}
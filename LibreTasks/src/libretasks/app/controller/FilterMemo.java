@@ -0,0 +1,129 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the results of the {@link Filter}s evaluated for one {@link Event}. Filters are
+ * compared by value, so a filter shared by several rules is only evaluated once per event. Counts
+ * hits and misses both for the event and for the whole process.
+ * <p>
+ * {@link FilterIndex}es which already know the result of some filters for this event can register
+ * a {@link Resolver}, which is asked before a filter is evaluated.
+ * </p>
+ */
+public class FilterMemo {
+
+  /** Hits and misses of all events since the process started */
+  private static final AtomicLong totalHits = new AtomicLong();
+  private static final AtomicLong totalMisses = new AtomicLong();
+
+  /**
+   * Knows the result of some filters for the event without evaluating them.
+   */
+  public interface Resolver {
+    /**
+     * @param filter
+     *          the filter to resolve
+     * @return the result of the filter, or null if it is not known to this resolver
+     */
+    public Boolean resolve(Filter filter);
+  }
+
+  /** Results of the filters evaluated so far */
+  private final HashMap<Filter, Boolean> results = new HashMap<Filter, Boolean>();
+
+  /** Resolvers registered for this event */
+  private final ArrayList<Resolver> resolvers = new ArrayList<Resolver>();
+
+  private int hits;
+  private int misses;
+
+  /**
+   * Matches a filter against the event, reusing the result if an equal filter was already
+   * evaluated for it.
+   *
+   * @param filter
+   *          the filter to match
+   * @param event
+   *          the event this memo belongs to
+   * @return true if the event data passes the filter, false otherwise
+   */
+  public boolean match(Filter filter, Event event) {
+    Boolean result = results.get(filter);
+    if (result != null) {
+      hits++;
+      totalHits.incrementAndGet();
+      return result;
+    }
+
+    misses++;
+    totalMisses.incrementAndGet();
+    for (Resolver resolver : resolvers) {
+      result = resolver.resolve(filter);
+      if (result != null) {
+        results.put(filter, result);
+        return result;
+      }
+    }
+
+    boolean match = filter.getPredicate().matches(event);
+    results.put(filter, match);
+    return match;
+  }
+
+  /**
+   * Registers a resolver for the filters of this event.
+   *
+   * @param resolver
+   *          the resolver to ask before evaluating a filter
+   */
+  public void addResolver(Resolver resolver) {
+    resolvers.add(resolver);
+  }
+
+  /**
+   * @return the number of filter results reused for this event
+   */
+  public int getHits() {
+    return hits;
+  }
+
+  /**
+   * @return the number of filters evaluated for this event
+   */
+  public int getMisses() {
+    return misses;
+  }
+
+  /**
+   * @return the number of filter results reused since the process started
+   */
+  public static long getTotalHits() {
+    return totalHits.get();
+  }
+
+  /**
+   * @return the number of filters evaluated since the process started
+   */
+  public static long getTotalMisses() {
+    return totalMisses.get();
+  }
+}
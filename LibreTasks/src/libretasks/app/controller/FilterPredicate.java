@@ -0,0 +1,119 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import android.util.Log;
+import libretasks.app.controller.datatypes.DataType;
+import libretasks.app.controller.datatypes.DataTypeRegistry;
+import libretasks.app.controller.datatypes.FactoryDataType;
+
+/**
+ * The compiled form of a {@link Filter}. All the parts of a filter that do not depend on the event
+ * are resolved once when the predicate is built: the comparison filter, the user defined data on
+ * the right hand side and the factory of the data type of the event attribute. Matching an
+ * event then only needs to parse the event attribute and compare.
+ */
+public class FilterPredicate {
+  private static final String TAG = FilterPredicate.class.getSimpleName();
+
+  /** The event attribute data field to be filtered */
+  private final String eventAttribute;
+
+  /** Creates the left hand side from the event attribute data */
+  private final DataTypeRegistry.Factory leftHandSideFactory;
+
+  /** The comparison to be made */
+  private final DataType.Filter comparisonFilter;
+
+  /** The parsed user defined data to check against the event attribute */
+  private final DataType rightHandSide;
+
+  /**
+   * Compiles a filter into a predicate.
+   *
+   * @param filter
+   *          the filter to compile
+   */
+  FilterPredicate(Filter filter) {
+    eventAttribute = filter.eventAttribute;
+    leftHandSideFactory = FactoryDataType.getFactory(filter.filterOnDataType);
+    comparisonFilter = FactoryDataType.getFilterFromString(filter.filterOnDataType, filter.filter);
+    rightHandSide = FactoryDataType.createObject(filter.compareWithDataType,
+        filter.compareWithData);
+
+    if (!isValid()) {
+      Log.w(TAG, "Can't compile filter " + filter.filter + " on " + filter.filterOnDataType
+          + " with data " + filter.compareWithData + ", it will never match.");
+    }
+  }
+
+  /**
+   * @return true if all parts of the filter could be resolved, false otherwise
+   */
+  public boolean isValid() {
+    return leftHandSideFactory != null && comparisonFilter != null && rightHandSide != null;
+  }
+
+  /**
+   * @return the event attribute this predicate filters on
+   */
+  public String getEventAttribute() {
+    return eventAttribute;
+  }
+
+  /**
+   * @return the factory of the data type of the event attribute, or null if it could not be
+   *         resolved
+   */
+  public DataTypeRegistry.Factory getLeftHandSideFactory() {
+    return leftHandSideFactory;
+  }
+
+  /**
+   * @return the comparison made by this predicate, or null if it could not be resolved
+   */
+  public DataType.Filter getComparisonFilter() {
+    return comparisonFilter;
+  }
+
+  /**
+   * @return the parsed user defined data, or null if it could not be parsed
+   */
+  public DataType getRightHandSide() {
+    return rightHandSide;
+  }
+
+  /**
+   * Compares the data in the event attribute to the user filter data
+   *
+   * @param event
+   *          the event whose attributes will be used for the comparison
+   * @return true if the event data passes the filter, false otherwise or if the event attribute
+   *         data is not valid for its data type
+   */
+  public boolean matches(Event event) {
+    if (!isValid()) {
+      return false;
+    }
+
+    DataType leftHandSide = event.getParsedAttribute(eventAttribute, leftHandSideFactory);
+    if (leftHandSide == null) {
+      return false;
+    }
+    return leftHandSide.matchFilter(comparisonFilter, rightHandSide);
+  }
+}
@@ -33,6 +33,9 @@
  *******************************************************************************/
 package libretasks.app.controller;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import libretasks.app.controller.events.LocationChangedEvent;
 import libretasks.app.controller.events.InternetAvailableEvent;
 import libretasks.app.controller.events.MissedCallEvent;
@@ -50,18 +53,103 @@ import android.util.Log;
  * This class parses the received {@link android.content.Intent}'s action field to see if it is an
  * Omnidroid supported event. Then it creates an {@link Event} object which is able to parse the
  * intent for any associated data attributes.
+ * 
+ * The supported actions are kept in a registry mapping each action to an {@link EventFactory}, so
+ * parsing an intent costs a single hash lookup. The built-in events and all {@link SystemEvent}s
+ * are registered when this class is loaded, other event types can add themselves with
+ * {@link #register(String, EventFactory)}.
  */
 public class IntentParser {
   // TODO(londinop): put intent action fields in a database table rather than hard code
   public static final String SMS_INTENT_ACTION = "android.provider.Telephony.SMS_RECEIVED";
   public static final String GMAIL_INTENT_ACTION = "android.intent.action.PROVIDER_CHANGED";
 
+  /**
+   * Creates the {@link Event} for an intent with a supported action.
+   */
+  public interface EventFactory {
+    /**
+     * @param intent
+     *          an intent received by the system describing the event that took place
+     * @return the event wrapping the intent
+     */
+    Event create(Intent intent);
+  }
+
+  /** Event factories by intent action, read by the event handling thread */
+  private static final Map<String, EventFactory> factories =
+      new ConcurrentHashMap<String, EventFactory>();
+
+  static {
+    register(SMS_INTENT_ACTION, new EventFactory() {
+      public Event create(Intent intent) {
+        return new SMSReceivedEvent(intent);
+      }
+    });
+    register(LocationChangedEvent.ACTION_NAME, new EventFactory() {
+      public Event create(Intent intent) {
+        return new LocationChangedEvent(intent);
+      }
+    });
+    register(PhoneRingingEvent.ACTION_NAME, new EventFactory() {
+      public Event create(Intent intent) {
+        return new PhoneRingingEvent(intent);
+      }
+    });
+    register(CallEndedEvent.ACTION_NAME, new EventFactory() {
+      public Event create(Intent intent) {
+        return new CallEndedEvent(intent);
+      }
+    });
+    register(TimeTickEvent.ACTION_NAME, new EventFactory() {
+      public Event create(Intent intent) {
+        return new TimeTickEvent(intent);
+      }
+    });
+    register(ServiceAvailableEvent.ACTION_NAME, new EventFactory() {
+      public Event create(Intent intent) {
+        return new ServiceAvailableEvent(intent);
+      }
+    });
+    register(InternetAvailableEvent.ACTION_NAME, new EventFactory() {
+      public Event create(Intent intent) {
+        return new InternetAvailableEvent(intent);
+      }
+    });
+    register(MissedCallEvent.ACTION_NAME, new EventFactory() {
+      public Event create(Intent intent) {
+        return new MissedCallEvent(intent);
+      }
+    });
+
+    for (final SystemEvent systemEvent : SystemEvent.values()) {
+      register(systemEvent.ACTION_NAME, new EventFactory() {
+        public Event create(Intent intent) {
+          return new SystemBroadcastedEvent(intent, systemEvent);
+        }
+      });
+    }
+  }
+
   /**
    * This is a static utility class which cannot be instantiated.
    */
   private IntentParser() {
   }
 
+  /**
+   * Registers the factory creating events for an intent action, replacing any factory registered
+   * before for the same action.
+   * 
+   * @param action
+   *          the intent action
+   * @param factory
+   *          the factory creating the events for intents with this action
+   */
+  public static void register(String action, EventFactory factory) {
+    factories.put(action, factory);
+  }
+
   /**
    * Given an intent with a supported action type, create and return an Event of the appropriate
    * type. If the action is not supported, null is returned.
@@ -71,33 +159,13 @@ public class IntentParser {
    * @return an Omnidroid Event type that contains the methods to get at the event's data attributes
    */
   public static Event getEvent(Intent intent) {
-    Log.d("IntentParser:", "get Intent with action: " + intent.getAction());
-    Event event = null;
-    if (intent.getAction().equals(SMS_INTENT_ACTION)) {
-      // Handle SMS event
-      event = new SMSReceivedEvent(intent);
-    } else if (intent.getAction().equals(LocationChangedEvent.ACTION_NAME)) {
-      event = new LocationChangedEvent(intent);
-    } else if (intent.getAction().equals(PhoneRingingEvent.ACTION_NAME)) {
-      event = new PhoneRingingEvent(intent);
-    } else if (intent.getAction().equals(CallEndedEvent.ACTION_NAME)) {
-      event = new CallEndedEvent(intent);
-    } else if (intent.getAction().equals(TimeTickEvent.ACTION_NAME)) {
-      event = new TimeTickEvent(intent);
-    } else if (intent.getAction().equals(ServiceAvailableEvent.ACTION_NAME)) {
-      event = new ServiceAvailableEvent(intent);
-    } else if (intent.getAction().equals(InternetAvailableEvent.ACTION_NAME)) {
-      event = new InternetAvailableEvent(intent);
-    } else if (intent.getAction().equals(MissedCallEvent.ACTION_NAME)) {
-      event = new MissedCallEvent(intent);
-    } else {
-      for (SystemEvent e : SystemEvent.values()) {
-        if (intent.getAction().equals(e.ACTION_NAME)) {
-          Log.d("IntentParser:", e.ACTION_NAME);
-          event = new SystemBroadcastedEvent(intent, e);
-        }
-      }
+    String action = intent.getAction();
+    Log.d("IntentParser:", "get Intent with action: " + action);
+    if (action == null) {
+      return null;
     }
-    return event;
+
+    EventFactory factory = factories.get(action);
+    return factory == null ? null : factory.create(intent);
   }
 }
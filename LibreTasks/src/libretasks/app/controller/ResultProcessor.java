@@ -37,12 +37,15 @@ import android.content.Context;
 import android.content.Intent;
 import android.widget.Toast;
 import libretasks.app.R;
+import libretasks.app.controller.external.attributes.EventMonitoringService;
+import libretasks.app.controller.util.Logger;
 import libretasks.app.model.FailedActionsDbHelper;
 import libretasks.app.view.simple.UtilUI;
 
 /**
  * This class processes results after action is executed. 
  * In case of failure it stores action to be executed when resources are available. 
+ * Actions executed concurrently are reported complete to the {@link ActionExecuter}.
  */
 public class ResultProcessor {
   
@@ -72,6 +75,12 @@ public class ResultProcessor {
    *        integer identifying success or cause of failure
    */
   public static void process(Context context, Intent intent, int result, String message) {
+    long latency = ActionExecuter.actionCompleted(intent);
+    if (latency >= 0) {
+      Logger.d(TAG, intent.getAction() + " completed with result " + result + " in " + latency
+          + " ms, " + ActionExecuter.getAverageLatency() + " ms on average");
+    }
+
     FailedActionsDbHelper failedActionsDbHelper = new FailedActionsDbHelper(context);
     String actionType = intent.getStringExtra(Action.ACTION_TYPE);
     long databaseId = intent.getLongExtra(Action.DATABASE_ID, -1L);
@@ -92,6 +101,8 @@ public class ResultProcessor {
     case RESULT_FAILURE_UNKNOWN:
       if (actionType.equals(Action.RULE_ACTION)) {
         failedActionsDbHelper.insert(intent, result, message);
+        // Failed actions are retried on time ticks
+        EventMonitoringService.refreshMonitors();
       } else if (actionType.equals(Action.FAILED_ACTION)) {
         failedActionsDbHelper.update(intent, result, message);
       } 
@@ -41,22 +41,23 @@ import libretasks.app.model.CoreActionsDbHelper;
 /**
  * This class represents a user defined rule. It consists of the name of the rule (for logging
  * purposes), the filters that apply to the event, and the actions that will be performed if an
- * event matches the rule.
+ * event matches the rule. Rules are immutable once built, which allows them to be shared between
+ * events through the {@link libretasks.app.model.RuleIndex}.
  */
 public class Rule {
 
   /** Rule parameters */
   public final String ruleName;
-  Tree<Filter> filterTree;
+  final Tree<Filter> filterTree;
 
   /** Package private for pre-populating database tests */
-  long ruleID;
+  final long ruleID;
 
-  /** An event to check against this rule */
-  private Event event;
-  
   /** Shows whether notification service is on or off for this rule*/
-  private Boolean showNotification;
+  private final Boolean showNotification;
+
+  /** Whether the actions of this rule run even if other rules fire the same actions */
+  private final boolean allowDuplicateActions;
   
   /**
    * Constructs a rule from all rule parameters
@@ -70,6 +71,30 @@ public class Rule {
    *           if required parameters are null
    */
   public Rule(String ruleName, long ruleID, Tree<Filter> filterTree, Boolean showNotification) {
+    this(ruleName, ruleID, filterTree, showNotification, false);
+  }
+
+  /**
+   * Constructs a rule from all rule parameters, including whether its actions may duplicate the
+   * actions of other rules
+   * 
+   * @param ruleName
+   *          user-defined name of the rule
+   * @param ruleID
+   *          database id of the rule
+   * @param filterTree
+   *          a tree of filters on the event attributes which captures the and/or relationships
+   *          between the filters, can be null if there are no filters defined for this rule
+   * @param showNotification
+   *          true if a notification is shown when the actions of this rule are executed
+   * @param allowDuplicateActions
+   *          true if the actions of this rule are never suppressed as duplicates of the actions of
+   *          other rules, see {@link ActionDeduplicator}
+   * @throws IllegalArgumentException
+   *           if ruleName is null
+   */
+  public Rule(String ruleName, long ruleID, Tree<Filter> filterTree, Boolean showNotification,
+      boolean allowDuplicateActions) {
     if (ruleName == null) {
       throw new IllegalArgumentException("ruleName cannot be null");
     }
@@ -77,6 +102,14 @@ public class Rule {
     this.ruleID = ruleID;
     this.filterTree = filterTree;
     this.showNotification = showNotification;
+    this.allowDuplicateActions = allowDuplicateActions;
+  }
+
+  /**
+   * @return true if the actions of this rule are never suppressed as duplicates
+   */
+  public boolean allowsDuplicateActions() {
+    return allowDuplicateActions;
   }
 
   /**
@@ -92,8 +125,7 @@ public class Rule {
       return true;
     }
 
-    this.event = event;
-    return isFilterBranchTrue(filterTree);
+    return isFilterBranchTrue(filterTree, event);
   }
 
   /**
@@ -121,17 +153,19 @@ public class Rule {
    * 
    * @param node
    *          the root of the tree on which to check the filters
+   * @param event
+   *          the event to check the filters against
    * @return true if this is a leaf, or if at least one branch is true to the leaf level, false
    *         otherwise
    */
-  private boolean isFilterBranchTrue(Tree<Filter> node) {
+  private boolean isFilterBranchTrue(Tree<Filter> node, Event event) {
     if (node.isLeafNode()) {
       return node.getItem().match(event);
     }
 
     for (Tree<Filter> currentNode : node.getChildren()) {
       if (currentNode.getItem().match(event)) {
-        return isFilterBranchTrue(currentNode);
+        return isFilterBranchTrue(currentNode, event);
       }
     }
     return false;
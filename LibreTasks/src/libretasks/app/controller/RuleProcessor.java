@@ -34,15 +34,18 @@
 package libretasks.app.controller;
 
 import java.util.ArrayList;
+import java.util.List;
 
+import android.content.Context;
 import libretasks.app.controller.util.Logger;
 import libretasks.app.model.CoreActionsDbHelper;
-import libretasks.app.model.CoreRulesDbHelper;
+import libretasks.app.model.RuleIndex;
 
 /**
  * Gets the {@link Rule}(s) triggered by this {@link Event} and compares the event attributes with
  * the {@link Filter}(s) defined for each rule. Returns the {@link Action}(s) to execute if this
- * rule matches the event.
+ * rule matches the event and is within its budget, without the duplicates of the actions of other
+ * rules.
  */
 public class RuleProcessor {
   private static final String TAG = RuleProcessor.class.getSimpleName();
@@ -56,30 +59,54 @@ public class RuleProcessor {
   /**
    * Gets the {@link Rule}(s) triggered by this {@link Event} and compares the event attributes with
    * the {@link Filter}(s) defined for each rule. Returns the {@link Action}(s) to execute if this
-   * rule matches the event.
+   * rule matches the event. Rules over their budget are skipped before their actions are
+   * deduplicated, so they never suppress the actions of the rules which do run.
    * 
-   * @param coreActionsDbHelper
-   *          The helper class to get actions data from database
+   * @param context
+   *          the context used to load the rules if they are not indexed yet
    * @param event
    *          the event that will be compared to all defined user rules
+   * @param coreActionsDbHelper
+   *          The helper class to get actions data from database
+   * @param deduplicator
+   *          the deduplicator suppressing the actions identical to the actions of other rules
+   * @param throttle
+   *          the throttle each matching rule is counted against once
    * @return the list of actions to be performed based on the rules triggered by this event
    */
-  public static ArrayList<Action> getActions(Event event, CoreRulesDbHelper coreRuleDbHelper,
-      CoreActionsDbHelper coreActionsDbHelper) {
+  public static ArrayList<Action> getActions(Context context, Event event,
+      CoreActionsDbHelper coreActionsDbHelper, ActionDeduplicator deduplicator,
+      EventThrottle throttle) {
 
-    ArrayList<Rule> rules = coreRuleDbHelper.getRulesMatchingEvent(event.getAppName(), event
-        .getEventName());
-    Logger.d(TAG, "get " + rules.size() + " rule(s) for event " + event.getEventName()
-        + " from App " + event.getAppName());
+    RuleSet ruleSet = RuleIndex.getRules(context, event.getAppName(), event.getEventName());
+    List<Rule> rules = ruleSet.getCandidates(event);
+    Logger.d(TAG, "get " + rules.size() + " of " + ruleSet.getRules().size()
+        + " rule(s) for event " + event.getEventName() + " from App " + event.getAppName());
 
     ArrayList<Action> actions = new ArrayList<Action>();
+    ActionDeduplicator.Batch batch = deduplicator.newBatch();
     for (Rule currentRule : rules) {
       if (currentRule.passesFilters(event)) {
-        actions.addAll(currentRule.getActions(coreActionsDbHelper, event)) ;
+        if (throttle.recordRule(currentRule.ruleID)) {
+          Logger.w(TAG, "rule " + currentRule.ruleName
+              + " is over its budget, skipping its actions");
+          continue;
+        }
+        for (Action action : currentRule.getActions(coreActionsDbHelper, event)) {
+          if (currentRule.allowsDuplicateActions() || batch.offer(action)) {
+            actions.add(action);
+          }
+        }
       }
     }
     Logger.d(TAG, "get " + actions.size() + " action(s) for event " + event.getEventName()
-        + " from App " + event.getAppName());
+        + " from App " + event.getAppName() + ", suppressed " + batch.getSuppressedCount()
+        + " duplicate(s)");
+
+    FilterMemo filterMemo = event.getFilterMemo();
+    Logger.d(TAG, "evaluated " + filterMemo.getMisses() + " filter(s), reused "
+        + filterMemo.getHits() + " result(s) for this event, " + FilterMemo.getTotalMisses()
+        + " evaluated and " + FilterMemo.getTotalHits() + " reused in total");
     return actions;
   }
 }
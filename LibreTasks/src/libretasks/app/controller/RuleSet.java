@@ -0,0 +1,185 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import libretasks.app.controller.datatypes.OmniArea;
+import libretasks.app.controller.util.Tree;
+
+/**
+ * The enabled {@link Rule}s triggered by one type of event, together with the {@link FilterIndex}es
+ * over their filters. A rule is guarded if every branch of its filter tree contains a filter that is
+ * a guard of some index; such a rule is only evaluated for events the index reports it as a
+ * candidate for. All other rules are evaluated for every event.
+ */
+public class RuleSet {
+
+  /** The rules in the order they were loaded */
+  private final List<Rule> rules;
+
+  /** The positions of the rules which are not guarded by any index */
+  private final BitSet unguardedRules = new BitSet();
+
+  private final FilterIndex[] indexes;
+
+  /** The names of the event attributes the filters of the rules look at */
+  private final HashSet<String> attributes = new HashSet<String>();
+
+  /** The areas the filters of the rules compare the event location with, by their string form */
+  private final HashMap<String, OmniArea> areas = new HashMap<String, OmniArea>();
+
+  /**
+   * Builds a rule set and indexes the filters of its rules.
+   * 
+   * @param rules
+   *          the rules triggered by one type of event
+   */
+  public RuleSet(List<Rule> rules) {
+    this.rules = Collections.unmodifiableList(new ArrayList<Rule>(rules));
+    indexes = new FilterIndex[] { new EqualityFilterIndex(), new AreaFilterIndex(),
+        new TimeFilterIndex(), new ContainsFilterIndex() };
+
+    for (int i = 0; i < this.rules.size(); i++) {
+      if (!isGuarded(this.rules.get(i).filterTree, i)) {
+        unguardedRules.set(i);
+      }
+      addAttributes(this.rules.get(i).filterTree);
+    }
+  }
+
+  /**
+   * @return all rules of this set
+   */
+  public List<Rule> getRules() {
+    return rules;
+  }
+
+  /**
+   * @return the names of the event attributes used by the filters of the rules
+   */
+  public Set<String> getAttributes() {
+    return Collections.unmodifiableSet(attributes);
+  }
+
+  /**
+   * @return the areas the NEAR and AWAY filters of the rules compare the event location with
+   */
+  public Collection<OmniArea> getAreas() {
+    return Collections.unmodifiableCollection(areas.values());
+  }
+
+  /**
+   * Returns the rules which may match an event, skipping guarded rules none of whose guards may
+   * match.
+   * 
+   * @param event
+   *          the event to match
+   * @return the candidate rules, in the order they were loaded
+   */
+  public List<Rule> getCandidates(Event event) {
+    BitSet candidates = (BitSet) unguardedRules.clone();
+    for (FilterIndex index : indexes) {
+      index.collectCandidates(event, candidates);
+    }
+
+    ArrayList<Rule> result = new ArrayList<Rule>(candidates.cardinality());
+    for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+      result.add(rules.get(i));
+    }
+    return result;
+  }
+
+  private void addAttributes(Tree<Filter> node) {
+    if (node == null) {
+      return;
+    }
+    Filter filter = node.getItem();
+    if (filter != null) {
+      attributes.add(filter.eventAttribute);
+
+      FilterPredicate predicate = filter.getPredicate();
+      if (filter.eventAttribute.equals(Event.ATTRIBUTE_LOCATION) && predicate.isValid()
+          && predicate.getRightHandSide() instanceof OmniArea) {
+        OmniArea area = (OmniArea) predicate.getRightHandSide();
+        areas.put(area.toString(), area);
+      }
+    }
+    for (Tree<Filter> child : node.getChildren()) {
+      addAttributes(child);
+    }
+  }
+
+  /**
+   * Checks whether every branch of a filter tree is guarded, registering the guards with the
+   * indexes.
+   * 
+   * @param root
+   *          the root of the filter tree, may be null
+   * @param rulePosition
+   *          the position of the rule
+   * @return true if the rule is guarded, false otherwise
+   */
+  private boolean isGuarded(Tree<Filter> root, int rulePosition) {
+    if (root == null || root.isLeafNode()) {
+      return false;
+    }
+
+    for (Tree<Filter> child : root.getChildren()) {
+      if (!isBranchGuarded(child, rulePosition)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether every path from a filter node to the leaves contains a guard, registering the
+   * first guard on each path with its index. A rule can only pass its filters if all filters on one
+   * of these paths match.
+   * 
+   * @param node
+   *          the filter node
+   * @param rulePosition
+   *          the position of the rule
+   * @return true if all paths are guarded, false otherwise
+   */
+  private boolean isBranchGuarded(Tree<Filter> node, int rulePosition) {
+    for (FilterIndex index : indexes) {
+      if (index.addGuard(node.getItem(), rulePosition)) {
+        return true;
+      }
+    }
+
+    if (node.isLeafNode()) {
+      return false;
+    }
+    for (Tree<Filter> child : node.getChildren()) {
+      if (!isBranchGuarded(child, rulePosition)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,315 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+import libretasks.app.controller.datatypes.DataType;
+import libretasks.app.controller.datatypes.DataTypeRegistry;
+import libretasks.app.controller.datatypes.OmniDate;
+import libretasks.app.controller.datatypes.OmniDayOfWeek;
+import libretasks.app.controller.datatypes.OmniTimePeriod;
+import libretasks.app.controller.util.DualKey;
+
+/**
+ * Indexes the daily and day of week {@link OmniDate} filters over the minutes of the week. The
+ * week is cut into segments in which no such filter changes its value, and the rules which may
+ * pass in each segment are computed once. An event, typically a time tick, then only needs to look
+ * up the segment of its minute to know which rules to evaluate and the value of most time filters.
+ */
+public class TimeFilterIndex implements FilterIndex {
+
+  private static final int MINUTES_IN_DAY = 24 * OmniDate.MINUTES_IN_HOUR;
+
+  /** Day of week of the filters which apply every day */
+  private static final int EVERY_DAY = 0;
+
+  /**
+   * A time filter constant, which is true during the seconds [from, to) of its day(s) of the week,
+   * or outside of them if negated.
+   */
+  private static class Entry {
+    final int id;
+    final int from;
+    final int to;
+    final boolean negated;
+    final int dayOfWeek;
+
+    /** Rules guarded by this filter */
+    final BitSet rules = new BitSet();
+
+    Entry(int id, int from, int to, boolean negated, int dayOfWeek) {
+      this.id = id;
+      this.from = from;
+      this.to = to;
+      this.negated = negated;
+      this.dayOfWeek = dayOfWeek;
+    }
+
+    /**
+     * @return the value of the filter during a minute of the week, or null if it changes within
+     *         that minute
+     */
+    Boolean getValue(int minuteOfWeek) {
+      if (dayOfWeek != EVERY_DAY && dayOfWeek != minuteOfWeek / MINUTES_IN_DAY + Calendar.SUNDAY) {
+        return negated;
+      }
+
+      int start = (minuteOfWeek % MINUTES_IN_DAY) * OmniDate.SECONDS_IN_MINUTE;
+      int overlap = Math.min(to, start + OmniDate.SECONDS_IN_MINUTE) - Math.max(from, start);
+      if (overlap <= 0) {
+        return negated;
+      } else if (overlap >= OmniDate.SECONDS_IN_MINUTE) {
+        return !negated;
+      }
+      return null;
+    }
+
+    /**
+     * Adds the minutes of the week at which the value of the filter may change.
+     */
+    void addBoundaries(TreeSet<Integer> boundaries) {
+      int[] minutes = { from / OmniDate.SECONDS_IN_MINUTE, from / OmniDate.SECONDS_IN_MINUTE + 1,
+          to / OmniDate.SECONDS_IN_MINUTE, to / OmniDate.SECONDS_IN_MINUTE + 1 };
+      for (int day = 0; day < 7; day++) {
+        if (dayOfWeek == EVERY_DAY || dayOfWeek == day + Calendar.SUNDAY) {
+          for (int minute : minutes) {
+            if (minute >= 0 && minute < MINUTES_IN_DAY) {
+              boundaries.add(day * MINUTES_IN_DAY + minute);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * The rules which may pass and the time filters known to be true or false during a segment of
+   * the week.
+   */
+  private static class Segment {
+    final BitSet candidates = new BitSet();
+    final BitSet trueEntries = new BitSet();
+    final BitSet falseEntries = new BitSet();
+  }
+
+  /**
+   * The time filters on one attribute parsed with one data type.
+   */
+  private static class Bucket {
+    final DataTypeRegistry.Factory factory;
+
+    /** Entries by filter and constant */
+    final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+    final ArrayList<Entry> entryList = new ArrayList<Entry>();
+
+    /** All rules guarded by a filter in this bucket */
+    final BitSet rules = new BitSet();
+
+    /** Sorted first minutes of the segments, built on first use */
+    private int[] segmentStarts;
+    private Segment[] segments;
+
+    Bucket(DataTypeRegistry.Factory factory) {
+      this.factory = factory;
+    }
+
+    synchronized Segment getSegment(int minuteOfWeek) {
+      if (segments == null) {
+        buildSegments();
+      }
+      int position = Arrays.binarySearch(segmentStarts, minuteOfWeek);
+      return segments[position >= 0 ? position : -position - 2];
+    }
+
+    private void buildSegments() {
+      TreeSet<Integer> boundaries = new TreeSet<Integer>();
+      for (int day = 0; day < 7; day++) {
+        boundaries.add(day * MINUTES_IN_DAY);
+      }
+      for (Entry entry : entryList) {
+        entry.addBoundaries(boundaries);
+      }
+
+      segmentStarts = new int[boundaries.size()];
+      segments = new Segment[boundaries.size()];
+      int position = 0;
+      for (Integer start : boundaries) {
+        Segment segment = new Segment();
+        for (Entry entry : entryList) {
+          Boolean value = entry.getValue(start);
+          if (value == null || value) {
+            segment.candidates.or(entry.rules);
+          }
+          if (value != null) {
+            (value ? segment.trueEntries : segment.falseEntries).set(entry.id);
+          }
+        }
+        segmentStarts[position] = start;
+        segments[position] = segment;
+        position++;
+      }
+    }
+  }
+
+  /** Buckets by attribute name and data type factory */
+  private final HashMap<DualKey<String, DataTypeRegistry.Factory>, Bucket> buckets =
+      new HashMap<DualKey<String, DataTypeRegistry.Factory>, Bucket>();
+
+  /** The bucket and entry of each indexed filter */
+  private final HashMap<Filter, DualKey<Bucket, Entry>> entriesByFilter =
+      new HashMap<Filter, DualKey<Bucket, Entry>>();
+
+  public boolean addGuard(Filter filter, int rulePosition) {
+    FilterPredicate predicate = filter.getPredicate();
+    if (!predicate.isValid() || !(predicate.getComparisonFilter() instanceof OmniDate.Filter)) {
+      return false;
+    }
+
+    DualKey<String, DataTypeRegistry.Factory> bucketKey =
+        new DualKey<String, DataTypeRegistry.Factory>(predicate.getEventAttribute(), predicate
+            .getLeftHandSideFactory());
+    Bucket bucket = buckets.get(bucketKey);
+    if (bucket == null) {
+      bucket = new Bucket(predicate.getLeftHandSideFactory());
+    }
+
+    String key = predicate.getComparisonFilter() + ":" + predicate.getRightHandSide();
+    Entry entry = bucket.entries.get(key);
+    if (entry == null) {
+      entry = createEntry(bucket.entryList.size(), (OmniDate.Filter) predicate
+          .getComparisonFilter(), predicate.getRightHandSide());
+      if (entry == null) {
+        return false;
+      }
+      bucket.entries.put(key, entry);
+      bucket.entryList.add(entry);
+    }
+
+    entry.rules.set(rulePosition);
+    bucket.rules.set(rulePosition);
+    buckets.put(bucketKey, bucket);
+    entriesByFilter.put(filter, new DualKey<Bucket, Entry>(bucket, entry));
+    return true;
+  }
+
+  public void collectCandidates(Event event, BitSet candidates) {
+    if (buckets.isEmpty()) {
+      return;
+    }
+
+    final HashMap<Bucket, Segment> currentSegments = new HashMap<Bucket, Segment>();
+    for (DualKey<String, DataTypeRegistry.Factory> bucketKey : buckets.keySet()) {
+      Bucket bucket = buckets.get(bucketKey);
+
+      DataType value;
+      try {
+        value = event.getParsedAttribute(bucketKey.getKey1(), bucket.factory);
+      } catch (IllegalArgumentException e) {
+        // Let the filters themselves deal with the unknown attribute
+        candidates.or(bucket.rules);
+        continue;
+      }
+
+      if (value == null) {
+        // Invalid data never matches any filter
+        continue;
+      } else if (!(value instanceof OmniDate)) {
+        candidates.or(bucket.rules);
+        continue;
+      }
+
+      Segment segment = bucket.getSegment(getMinuteOfWeek(((OmniDate) value).getDate()));
+      candidates.or(segment.candidates);
+      currentSegments.put(bucket, segment);
+    }
+
+    event.getFilterMemo().addResolver(new FilterMemo.Resolver() {
+      public Boolean resolve(Filter filter) {
+        DualKey<Bucket, Entry> bucketEntry = entriesByFilter.get(filter);
+        if (bucketEntry == null) {
+          return null;
+        }
+        Segment segment = currentSegments.get(bucketEntry.getKey1());
+        if (segment == null) {
+          return null;
+        }
+
+        int id = bucketEntry.getKey2().id;
+        if (segment.trueEntries.get(id)) {
+          return true;
+        } else if (segment.falseEntries.get(id)) {
+          return false;
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Creates the entry of a time filter which only depends on the time of day and day of week.
+   *
+   * @return the entry, or null if the filter cannot be indexed
+   */
+  private static Entry createEntry(int id, OmniDate.Filter filter, DataType constant) {
+    if (constant instanceof OmniDayOfWeek) {
+      if (filter == OmniDate.Filter.ISDAYOFWEEK) {
+        return new Entry(id, 0, OmniDate.SECONDS_IN_DAY, false, ((OmniDayOfWeek) constant)
+            .getDayOfWeek());
+      }
+    } else if (constant instanceof OmniDate) {
+      int second = OmniDate.getSecondInDay(((OmniDate) constant).getDate());
+      int minuteStart = second - second % OmniDate.SECONDS_IN_MINUTE;
+      switch (filter) {
+      case IS_EVERYDAY:
+      case IS_NOT_EVERYDAY:
+        return new Entry(id, minuteStart, minuteStart + OmniDate.SECONDS_IN_MINUTE,
+            filter == OmniDate.Filter.IS_NOT_EVERYDAY, EVERY_DAY);
+      case BEFORE_EVERYDAY:
+      case AFTER_EVERYDAY:
+        return new Entry(id, 0, second + 1, filter == OmniDate.Filter.AFTER_EVERYDAY, EVERY_DAY);
+      }
+    } else if (constant instanceof OmniTimePeriod) {
+      int start = OmniDate.getSecondInDay(((OmniTimePeriod) constant).getStartTime());
+      int end = OmniDate.getSecondInDay(((OmniTimePeriod) constant).getEndTime());
+      switch (filter) {
+      case DURING_EVERYDAY:
+      case EXCEPT_EVERYDAY:
+        return new Entry(id, start + 1, end + 1, filter == OmniDate.Filter.EXCEPT_EVERYDAY,
+            EVERY_DAY);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the minute within the week of a date, starting from sunday midnight
+   */
+  private static int getMinuteOfWeek(Date date) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTime(date);
+    return (calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY) * MINUTES_IN_DAY
+        + calendar.get(Calendar.HOUR_OF_DAY) * OmniDate.MINUTES_IN_HOUR
+        + calendar.get(Calendar.MINUTE);
+  }
+}
@@ -37,12 +37,13 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import libretasks.app.controller.util.Logger;
-import libretasks.app.controller.HandlerService;
+import libretasks.app.controller.EventDispatcher;
 
 /**
  * The Broadcast receiver receives any intent that is broadcast either by the system or by any other
  * application. If it is a system broadcast, the intent checks whether the receiver has the
- * permission to receive the specific intent, in the applications Manifest.xml file.
+ * permission to receive the specific intent, in the applications Manifest.xml file. Intents are
+ * queued in the {@link EventDispatcher}, which handles them on its own thread.
  */
 public class BCReceiver extends BroadcastReceiver {
   public static final String TAG = BCReceiver.class.getSimpleName();
@@ -50,9 +51,7 @@ public class BCReceiver extends BroadcastReceiver {
   @Override
   public void onReceive(Context context, Intent intent) {
     try {
-      intent.setClass(context, HandlerService.class);
-      intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-      context.startService(intent);
+      EventDispatcher.getInstance(context).dispatch(intent);
       Logger.i(TAG, "Received Intent: " + intent.getAction());
     } catch (Exception e) {
       Logger.i(TAG, e.getLocalizedMessage());
@@ -0,0 +1,264 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller.datatypes;
+
+import java.util.HashMap;
+
+import android.util.Log;
+import libretasks.app.controller.util.DataTypeValidationException;
+
+/**
+ * Registry of the Omnidroid data types. Each data type is registered with its database name, its
+ * class name, a factory creating instances from their string representation and a parser for its
+ * filters. Lookups through the registry do not need any reflection, unlike the class name based
+ * lookups of {@link FactoryDataType}.
+ */
+public class DataTypeRegistry {
+  private static final String TAG = DataTypeRegistry.class.getSimpleName();
+
+  /**
+   * Creates instances of a data type from their string representation.
+   */
+  public interface Factory {
+    /**
+     * @param value
+     *          the string value to initialize the object with
+     * @return the new data type object
+     * @throws DataTypeValidationException
+     *           if value is not valid for this data type
+     */
+    public DataType create(String value) throws DataTypeValidationException;
+  }
+
+  /**
+   * Parses the filters of a data type from their names.
+   */
+  public interface FilterParser {
+    /**
+     * @param filterString
+     *          string representing the filter value
+     * @return the Filter represented by the string, or null if the data type has no filters
+     * @throws IllegalArgumentException
+     *           when the passed in string is not a valid filter
+     */
+    public DataType.Filter parse(String filterString) throws IllegalArgumentException;
+  }
+
+  /**
+   * The registration of one data type.
+   */
+  private static class Registration {
+    final Factory factory;
+    final FilterParser filterParser;
+
+    Registration(Factory factory, FilterParser filterParser) {
+      this.factory = factory;
+      this.filterParser = filterParser;
+    }
+  }
+
+  /** Registrations by database name */
+  private static final HashMap<String, Registration> byDbName =
+      new HashMap<String, Registration>();
+
+  /** Registrations by fully qualified class name */
+  private static final HashMap<String, Registration> byClassName =
+      new HashMap<String, Registration>();
+
+  static {
+    register(OmniText.DB_NAME, OmniText.class, new Factory() {
+      public DataType create(String value) {
+        return new OmniText(value);
+      }
+    }, new FilterParser() {
+      public DataType.Filter parse(String filterString) {
+        return OmniText.getFilterFromString(filterString);
+      }
+    });
+    register(OmniPhoneNumber.DB_NAME, OmniPhoneNumber.class, new Factory() {
+      public DataType create(String value) throws DataTypeValidationException {
+        return new OmniPhoneNumber(value);
+      }
+    }, new FilterParser() {
+      public DataType.Filter parse(String filterString) {
+        return OmniPhoneNumber.getFilterFromString(filterString);
+      }
+    });
+    register(OmniArea.DB_NAME, OmniArea.class, new Factory() {
+      public DataType create(String value) throws DataTypeValidationException {
+        return new OmniArea(value);
+      }
+    }, new FilterParser() {
+      public DataType.Filter parse(String filterString) {
+        return OmniArea.getFilterFromString(filterString);
+      }
+    });
+    register(OmniDate.DB_NAME, OmniDate.class, new Factory() {
+      public DataType create(String value) throws DataTypeValidationException {
+        return new OmniDate(value);
+      }
+    }, new FilterParser() {
+      public DataType.Filter parse(String filterString) {
+        return OmniDate.getFilterFromString(filterString);
+      }
+    });
+    register(OmniTimePeriod.DB_NAME, OmniTimePeriod.class, new Factory() {
+      public DataType create(String value) throws DataTypeValidationException {
+        return new OmniTimePeriod(value);
+      }
+    }, new FilterParser() {
+      public DataType.Filter parse(String filterString) {
+        return OmniTimePeriod.getFilterFromString(filterString);
+      }
+    });
+    register(OmniDayOfWeek.DB_NAME, OmniDayOfWeek.class, new Factory() {
+      public DataType create(String value) {
+        return new OmniDayOfWeek(value);
+      }
+    }, null);
+    register(OmniUserAccount.DB_NAME, OmniUserAccount.class, new Factory() {
+      public DataType create(String value) {
+        return new OmniUserAccount(value);
+      }
+    }, null);
+    register(OmniPasswordInput.DB_NAME, OmniPasswordInput.class, new Factory() {
+      public DataType create(String value) {
+        return new OmniPasswordInput(value);
+      }
+    }, null);
+    register(OmniCheckBoxInput.DB_NAME, OmniCheckBoxInput.class, new Factory() {
+      public DataType create(String value) {
+        return new OmniCheckBoxInput(Boolean.valueOf(value));
+      }
+    }, null);
+  }
+
+  /**
+   * This is a static utility class which cannot be instantiated.
+   */
+  private DataTypeRegistry() {
+  }
+
+  /**
+   * Registers a data type.
+   *
+   * @param dbName
+   *          the name of the data type stored in the database
+   * @param dataTypeClass
+   *          the class of the data type
+   * @param factory
+   *          creates instances of the data type
+   * @param filterParser
+   *          parses the filters of the data type, or null if it has no filters
+   */
+  private static void register(String dbName, Class<? extends DataType> dataTypeClass,
+      Factory factory, FilterParser filterParser) {
+    Registration registration = new Registration(factory, filterParser);
+    byDbName.put(dbName, registration);
+    byClassName.put(dataTypeClass.getName(), registration);
+  }
+
+  /**
+   * @param className
+   *          fully qualified class name of the data type
+   * @return the factory of the data type, or null if it is not registered
+   */
+  public static Factory getFactory(String className) {
+    Registration registration = byClassName.get(className);
+    return registration == null ? null : registration.factory;
+  }
+
+  /**
+   * @param dbName
+   *          the name of the data type stored in the database
+   * @return the factory of the data type, or null if it is not registered
+   */
+  public static Factory getFactoryByDbName(String dbName) {
+    Registration registration = byDbName.get(dbName);
+    return registration == null ? null : registration.factory;
+  }
+
+  /**
+   * @param className
+   *          fully qualified class name of the data type
+   * @return true if the data type is registered, false otherwise
+   */
+  public static boolean isRegistered(String className) {
+    return byClassName.containsKey(className);
+  }
+
+  /**
+   * Creates a data type object with a factory, the same way as
+   * {@link FactoryDataType#createObject(String, String)} does.
+   *
+   * @param factory
+   *          the factory of the data type
+   * @param value
+   *          the string value to initialize object with
+   * @return the DataType object if object was successfully created, or null if failed.
+   */
+  public static DataType createObject(Factory factory, String value) {
+    try {
+      return factory.create(value);
+    } catch (Exception ex) {
+      Log.e(TAG, "Can't create data type with value: " + value);
+    }
+
+    return null;
+  }
+
+  /**
+   * Creates a data type object of a registered data type.
+   *
+   * @param className
+   *          fully qualified class name of the data type
+   * @param value
+   *          the string value to initialize object with
+   * @return the DataType object if object was successfully created, or null if the data type is not
+   *         registered or value is not valid.
+   */
+  public static DataType createObject(String className, String value) {
+    Factory factory = getFactory(className);
+    if (factory == null) {
+      Log.e(TAG, "Data type " + className + " is not registered");
+      return null;
+    }
+    return createObject(factory, value);
+  }
+
+  /**
+   * Parses a filter of a registered data type.
+   *
+   * @param className
+   *          fully qualified class name of the data type
+   * @param filter
+   *          the name of the filter
+   * @return the filter if found, null otherwise
+   */
+  public static DataType.Filter getFilterFromString(String className, String filter) {
+    Registration registration = byClassName.get(className);
+    if (registration == null || registration.filterParser == null) {
+      return null;
+    }
+    try {
+      return registration.filterParser.parse(filter);
+    } catch (IllegalArgumentException e) {
+      Log.e(TAG, "Unknown filter " + filter + " for data type " + className);
+      return null;
+    }
+  }
+}
@@ -38,6 +38,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 import android.util.Log;
+import libretasks.app.controller.util.DataTypeValidationException;
 
 /**
  * The class acts as a factory for instantiation of the Omnidroid data types.
@@ -63,20 +64,48 @@ public class FactoryDataType {
    * @return the DataType object if object was successfully created, or null if failed.
    */
   public static DataType createObject(String className, String value) {
-    try {
-      Class<?> theClass = Class.forName(className);
-
-      Class<?>[] constructorParameters = new Class[1];
-      constructorParameters[0] = Class.forName("java.lang.String");
+    DataTypeRegistry.Factory factory = getFactory(className);
+    if (factory == null) {
+      return null;
+    }
+    return DataTypeRegistry.createObject(factory, value);
+  }
 
-      Constructor<?> classConstructor = theClass.getConstructor(constructorParameters);
+  /**
+   * Returns a factory for an Omnidroid data type. Registered data types use the factory of the
+   * {@link DataTypeRegistry}; others fall back to their constructor taking a single string, which
+   * is looked up through reflection only once. The factory can be kept to create many objects of
+   * the same type without resolving the class every time.
+   * 
+   * @param className
+   *          - string representing Omnidroid class name. Must implement DataType.
+   * @return the factory of the data type, or null if no such data type exists.
+   */
+  public static DataTypeRegistry.Factory getFactory(final String className) {
+    DataTypeRegistry.Factory factory = DataTypeRegistry.getFactory(className);
+    if (factory != null) {
+      return factory;
+    }
 
-      return (DataType) classConstructor.newInstance(value);
+    final Constructor<? extends DataType> classConstructor;
+    try {
+      classConstructor = Class.forName(className).asSubclass(DataType.class).getConstructor(
+          String.class);
     } catch (Exception ex) {
-      Log.e("createObject", "Can't create class " + className + " with value: " + value);
+      Log.e("getFactory", "Can't find constructor of class " + className);
+      return null;
     }
 
-    return null;
+    return new DataTypeRegistry.Factory() {
+      public DataType create(String value) throws DataTypeValidationException {
+        try {
+          return classConstructor.newInstance(value);
+        } catch (Exception ex) {
+          throw new DataTypeValidationException("Can't create class " + className
+              + " with value: " + value);
+        }
+      }
+    };
   }
 
   /**
@@ -88,6 +117,10 @@ public class FactoryDataType {
    * @return filter object represented by the classname & filter name if found.  Null otherwise.
    */
   public static DataType.Filter getFilterFromString(String className, String filter) {
+    if (DataTypeRegistry.isRegistered(className)) {
+      return DataTypeRegistry.getFilterFromString(className, filter);
+    }
+
     Class<?> theClass;
     try {
       theClass = Class.forName(className);
@@ -62,6 +62,8 @@ public class OmniArea extends DataType {
   public static final double MIN_LATITUDE = -90;
   public static final double MAX_LATITUDE = 90;
   public static final double MILES_IN_A_METER = 0.000621371192;
+  /** Mean radius of the earth (in miles), used for the spherical approximation of distances. */
+  public static final double EARTH_RADIUS_MILES = 3958.7613;
   private static final String omniAreaOpenTag = "<omniArea>";
   private static final String omniAreaCloseTag = "</omniArea>";
   private static final String latitudeOpenTag = "<latitude>";
@@ -382,6 +384,30 @@ public class OmniArea extends DataType {
     return results[DISTANCE] * MILES_IN_A_METER;
   }
 
+  /**
+   * Determine the great circle distance (in miles) between 2 points with the haversine formula. This
+   * treats the earth as a sphere and does not need the android location classes. It may differ
+   * from {@link #getDistance(OmniArea, OmniArea)} by up to about half a percent.
+   * 
+   * @param latitudeA
+   *          latitude of the first point, in degrees
+   * @param longitudeA
+   *          longitude of the first point, in degrees
+   * @param latitudeB
+   *          latitude of the second point, in degrees
+   * @param longitudeB
+   *          longitude of the second point, in degrees
+   * @return distance (in miles) between both points.
+   */
+  public static double getHaversineDistance(double latitudeA, double longitudeA,
+      double latitudeB, double longitudeB) {
+    double sinHalfLatitude = Math.sin(Math.toRadians(latitudeB - latitudeA) / 2);
+    double sinHalfLongitude = Math.sin(Math.toRadians(longitudeB - longitudeA) / 2);
+    double h = sinHalfLatitude * sinHalfLatitude + Math.cos(Math.toRadians(latitudeA))
+        * Math.cos(Math.toRadians(latitudeB)) * sinHalfLongitude * sinHalfLongitude;
+    return 2 * EARTH_RADIUS_MILES * Math.asin(Math.min(1, Math.sqrt(h)));
+  }
+
   public double getLatitude() {
     return latitude;
   }
@@ -49,6 +49,7 @@ public class OmniDate extends DataType {
   public static final int MINUTES_IN_HOUR = 60;
   public static final int SECONDS_IN_MINUTE = 60;
   public static final int SECONDS_IN_HOUR = 3600;
+  public static final int SECONDS_IN_DAY = 86400;
   private Date value;
   public static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
   
@@ -228,22 +229,26 @@ public class OmniDate extends DataType {
    * @return
    */
   public boolean beforeEveryday(OmniDate compareDate) {
+    if (getSecondInDay(value) <= getSecondInDay(compareDate.getDate())) {
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Gets the number of seconds elapsed since midnight, the time compared by the daily filters.
+   * 
+   * @param date
+   *          the date to get the time of
+   * @return the second within the day of <code>date</code>, from 0 to SECONDS_IN_DAY - 1
+   */
+  public static int getSecondInDay(Date date) {
     Calendar calendar = Calendar.getInstance();
-    calendar.setTime(compareDate.getDate());
-    int compareHour = calendar.get(Calendar.HOUR_OF_DAY);
-    int compareMinute = calendar.get(Calendar.MINUTE);
-    int compareSecond = calendar.get(Calendar.SECOND);
-    int compareSecondInDay = compareHour * SECONDS_IN_HOUR + compareMinute * SECONDS_IN_MINUTE + compareSecond;
-    calendar.setTime(value);
+    calendar.setTime(date);
     int hour = calendar.get(Calendar.HOUR_OF_DAY);
     int minute = calendar.get(Calendar.MINUTE);
     int second = calendar.get(Calendar.SECOND);
-    int secondInDay = hour * SECONDS_IN_HOUR + minute * SECONDS_IN_MINUTE + second;
-    
-    if (secondInDay <= compareSecondInDay) {
-      return true;
-    }
-    return false;
+    return hour * SECONDS_IN_HOUR + minute * SECONDS_IN_MINUTE + second;
   }
   
   /**
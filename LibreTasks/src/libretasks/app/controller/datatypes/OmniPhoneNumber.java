@@ -48,6 +48,12 @@ public class OmniPhoneNumber extends DataType {
   
   /* data type name to be stored in db */
   public static final String DB_NAME = "PhoneNumber";
+
+  /**
+   * Number of trailing dialable characters used as equality key, no more than the minimum number of
+   * characters {@link android.telephony.PhoneNumberUtils#compare} needs to match.
+   */
+  private static final int EQUALITY_KEY_LENGTH = 5;
   
   public enum Filter implements DataType.Filter {
     EQUALS("equals") , NOTEQUALS("not equals");
@@ -167,4 +173,42 @@ public class OmniPhoneNumber extends DataType {
   public String getValue() {
     return this.value;
   }
+
+  /**
+   * Returns a key for hashing phone numbers compared with the {@link Filter#EQUALS} filter. Two
+   * numbers which are equal according to {@link android.telephony.PhoneNumberUtils#compare} always
+   * have the same key, although numbers with the same key are not necessarily equal. The key
+   * consists of the last {@link #EQUALITY_KEY_LENGTH} dialable characters of the number, which
+   * always take part in the comparison.
+   * 
+   * @param phoneNumber
+   *          the phone number
+   * @return the key of the phone number, or null if the number has no reliable key because it is
+   *         null or contains a wild card character
+   */
+  public static String getEqualityKey(String phoneNumber) {
+    if (phoneNumber == null) {
+      return null;
+    }
+
+    // Characters after a pause or wait are not compared
+    int end = phoneNumber.length();
+    for (int i = 0; i < end; i++) {
+      char c = phoneNumber.charAt(i);
+      if (c == PAUSE || c == WAIT) {
+        end = i;
+      }
+    }
+
+    StringBuilder key = new StringBuilder(EQUALITY_KEY_LENGTH);
+    for (int i = end - 1; i >= 0 && key.length() < EQUALITY_KEY_LENGTH; i--) {
+      char c = phoneNumber.charAt(i);
+      if (c == WILD) {
+        return null;
+      } else if (isDialable(c)) {
+        key.append(c);
+      }
+    }
+    return key.toString();
+  }
 }
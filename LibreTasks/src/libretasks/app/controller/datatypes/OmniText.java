@@ -142,4 +142,25 @@ public class OmniText extends DataType {
   public String toString() {
     return this.value;
   }
+
+  /**
+   * Returns a key for hashing text compared with the {@link Filter#EQUALS} filter. Two strings
+   * which are equal ignoring case have the same key and vice versa, each character is folded the
+   * same way {@link String#equalsIgnoreCase(String)} compares it.
+   * 
+   * @param str
+   *          the text
+   * @return the key of the text, or null if the text is null
+   */
+  public static String getEqualityKey(String str) {
+    if (str == null) {
+      return null;
+    }
+
+    StringBuilder key = new StringBuilder(str.length());
+    for (int i = 0; i < str.length(); i++) {
+      key.append(Character.toLowerCase(Character.toUpperCase(str.charAt(i))));
+    }
+    return key.toString();
+  }
 }
@@ -101,6 +101,14 @@ public class OmniTimePeriod extends DataType {
     return endTime.getMinutes();
   }
   
+  public Date getStartTime() {
+    return startTime;
+  }
+  
+  public Date getEndTime() {
+    return endTime;
+  }
+  
   /**
    * Formatted String for <code>startTime</code>.
    * @return
@@ -71,7 +71,11 @@ public class MediaActionService extends Service {
       break;
     default:
       Log.e("OmniActionSercive", "No such operation supported as: " + operationType);
+      ResultProcessor.process(this, intent, ResultProcessor.RESULT_FAILURE_IRRECOVERABLE, null);
+      return;
     }
+    // Report completion without a message, nothing to notify the user about
+    ResultProcessor.process(this, intent, ResultProcessor.RESULT_SUCCESS, null);
   }
   
   /**
@@ -34,6 +34,7 @@
 package libretasks.app.controller.external.actions;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import android.app.Activity;
 import android.app.PendingIntent;
@@ -67,6 +68,25 @@ public class SMSService extends Service {
   public static final String INTENT_ACTION_SENT = "SMS_SENT";
   public static final String INTENT_ACTION_DELIVERED = "SMS_DELIVERED";
 
+  /** Extra of the sent intents, telling which message a part belongs to */
+  private static final String EXTRA_MESSAGE_ID = "libretasks.app.SMSService.MESSAGE_ID";
+
+  /**
+   * Request code of the next sent intent. Each part gets its own pending intent, otherwise the
+   * pending intents of earlier messages would be reused with their extras.
+   */
+  private static int nextRequestCode;
+  private static int nextMessageId;
+
+  /**
+   * Number of parts without a result of each message whose result was not reported yet. The
+   * result of a message is reported once, on the failure of any part or the success of all.
+   */
+  private final HashMap<Integer, Integer> unsentParts = new HashMap<Integer, Integer>();
+
+  /** Number of messages whose result was not reported yet, the service stops at zero */
+  private int pendingMessages;
+
   /**
    * @return null because client can't bind to this service
    */
@@ -75,6 +95,85 @@ public class SMSService extends Service {
     return null;
   }
 
+  /**
+   * Registers the receiver of the sent results. It stays registered while the service runs, the
+   * service stops once the results of all the messages are reported.
+   */
+  @Override
+  public void onCreate() {
+    super.onCreate();
+
+    smsResultReceiver = new BroadcastReceiver() {
+      @Override
+      public void onReceive(Context context, Intent intent) {
+        int messageId = intent.getIntExtra(EXTRA_MESSAGE_ID, -1);
+        intent.removeExtra(EXTRA_MESSAGE_ID);
+
+        // The parts sent after a failed part are ignored, the message already failed
+        Integer partsLeft = unsentParts.get(messageId);
+        if (partsLeft == null) {
+          return;
+        }
+        if (getResultCode() == Activity.RESULT_OK && partsLeft > 1) {
+          unsentParts.put(messageId, partsLeft - 1);
+          return;
+        }
+
+        unsentParts.remove(messageId);
+        if (getResultCode() == Activity.RESULT_OK) {
+          ResultProcessor.process(context, intent, ResultProcessor.RESULT_SUCCESS,
+              getString(R.string.sms_sent));
+        } else {
+          reportFailure(context, intent, getResultCode());
+        }
+        messageReported();
+      }
+    };
+    registerReceiver(smsResultReceiver, new IntentFilter(INTENT_ACTION_SENT));
+  }
+
+  /**
+   * Reports the failure of a message to {@link ResultProcessor}.
+   * 
+   * @param context
+   *          the context of the receiver
+   * @param intent
+   *          the intent of the action
+   * @param resultCode
+   *          the result code of the failed part
+   */
+  private void reportFailure(Context context, Intent intent, int resultCode) {
+    switch (resultCode) {
+    case SmsManager.RESULT_ERROR_GENERIC_FAILURE:
+      ResultProcessor.process(context, intent, ResultProcessor.RESULT_FAILURE_UNKNOWN,
+          getString(R.string.sms_failed_generic_failure));
+      break;
+    case SmsManager.RESULT_ERROR_NO_SERVICE:
+      ResultProcessor.process(context, intent, ResultProcessor.RESULT_FAILURE_SERVICE,
+          getString(R.string.sms_failed_no_service));
+      break;
+    case SmsManager.RESULT_ERROR_NULL_PDU:
+      ResultProcessor.process(context, intent, ResultProcessor.RESULT_FAILURE_UNKNOWN,
+          getString(R.string.sms_failed_null_pdu));
+      break;
+    case SmsManager.RESULT_ERROR_RADIO_OFF:
+      ResultProcessor.process(context, intent, ResultProcessor.RESULT_FAILURE_SERVICE,
+          getString(R.string.sms_failed_radio_off));
+      break;
+    default:
+      ResultProcessor.process(context, intent, ResultProcessor.RESULT_FAILURE_UNKNOWN,
+          getString(R.string.sms_failed_unknown));
+      break;
+    }
+  }
+
+  /** Stops the service once the results of all the messages are reported */
+  private void messageReported() {
+    if (--pendingMessages <= 0) {
+      stopSelf();
+    }
+  }
+
   /**
    * This method sends SMS by using an intent created by SendSmsAction class This method is
    * automatically called by onCreate method when service starts
@@ -91,35 +190,7 @@ public class SMSService extends Service {
     super.onStart(intent, startId);
 
     Toast.makeText(this, "SMS Service Started", Toast.LENGTH_LONG).show();
-
-    smsResultReceiver = new BroadcastReceiver() {
-      @Override
-      public void onReceive(Context context, Intent intent) {
-        switch (getResultCode()) {
-        case Activity.RESULT_OK:
-          ResultProcessor.process(context, intent, ResultProcessor.RESULT_SUCCESS,
-              getString(R.string.sms_sent));
-          break;
-        case SmsManager.RESULT_ERROR_GENERIC_FAILURE:
-          ResultProcessor.process(context, intent, ResultProcessor.RESULT_FAILURE_UNKNOWN,
-              getString(R.string.sms_failed_generic_failure));
-          break;
-        case SmsManager.RESULT_ERROR_NO_SERVICE:
-          ResultProcessor.process(context, intent, ResultProcessor.RESULT_FAILURE_SERVICE,
-              getString(R.string.sms_failed_no_service));
-          break;
-        case SmsManager.RESULT_ERROR_NULL_PDU:
-          ResultProcessor.process(context, intent, ResultProcessor.RESULT_FAILURE_UNKNOWN,
-              getString(R.string.sms_failed_null_pdu));
-          break;
-        case SmsManager.RESULT_ERROR_RADIO_OFF:
-          ResultProcessor.process(context, intent, ResultProcessor.RESULT_FAILURE_SERVICE,
-              getString(R.string.sms_failed_radio_off));
-          break;
-        }
-      }
-    };
-    registerReceiver(smsResultReceiver, new IntentFilter(INTENT_ACTION_SENT));
+    pendingMessages++;
 
     final String phoneNumber = intent.getStringExtra(SendSmsAction.PARAM_PHONE_NO);
     final String textMessage = intent.getStringExtra(SendSmsAction.PARAM_SMS);
@@ -138,15 +209,23 @@ public class SMSService extends Service {
            * experienced the same problem).
            */
           ArrayList<String> splitTextMessages = sms.divideMessage(textMessage);
+          int messageId = nextMessageId++;
+          if (splitTextMessages.isEmpty()) {
+            ResultProcessor.process(smsServiceInstance, intent, ResultProcessor.RESULT_SUCCESS,
+                getString(R.string.sms_sent));
+            messageReported();
+          } else {
+            unsentParts.put(messageId, splitTextMessages.size());
+          }
 
           for (final String message : splitTextMessages) {
+            // Keep the whole text in the result, a failed action is sent again as a whole
             Intent sentIntent = new Intent(intent);
-            intent.setAction(INTENT_ACTION_SENT);
-            intent.removeExtra(SendSmsAction.PARAM_SMS);
-            intent.putExtra(SendSmsAction.PARAM_SMS, message);
+            sentIntent.setAction(INTENT_ACTION_SENT);
+            sentIntent.putExtra(EXTRA_MESSAGE_ID, messageId);
 
-            final PendingIntent sentPI = PendingIntent.getBroadcast(smsServiceInstance, 0,
-                sentIntent, 0);
+            final PendingIntent sentPI = PendingIntent.getBroadcast(smsServiceInstance,
+                nextRequestCode++, sentIntent, PendingIntent.FLAG_UPDATE_CURRENT);
             
             Thread smsThread = new Thread(new Runnable() {
               public void run() {
@@ -171,7 +250,6 @@ public class SMSService extends Service {
           // Stop listening to events.
           ((TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE)).listen(this,
               PhoneStateListener.LISTEN_NONE);
-          stopSelf();
         }
       }
     }, PhoneStateListener.LISTEN_CALL_STATE);
@@ -97,6 +97,7 @@ public class SignalsActionService extends Service {
         break;
     default:
       Log.e("LibreTasks: Signals Action Service", "No such operation supported as: " + operationType);
+      ResultProcessor.process(this, intent, ResultProcessor.RESULT_FAILURE_IRRECOVERABLE, null);
     }
   }
   
@@ -151,10 +152,15 @@ public class SignalsActionService extends Service {
   private void powerOff() {
     try {
       Process proc = Runtime.getRuntime().exec(new String[]{"su", "-c", "reboot -p"});
-      proc.waitFor();
+      if (proc.waitFor() == 0) {
+        ResultProcessor.process(this, intent, ResultProcessor.RESULT_SUCCESS, null);
+        return;
+      }
     } catch (Exception ex) {
       ex.printStackTrace();
     }
+    ResultProcessor.process(this, intent, ResultProcessor.RESULT_FAILURE_IRRECOVERABLE,
+        getString(R.string.power_off_failed));
   }
 
 }
@@ -33,38 +33,94 @@
  *******************************************************************************/
 package libretasks.app.controller.external.attributes;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import libretasks.app.R;
 import libretasks.app.controller.util.Logger;
 import libretasks.app.model.CoreRulesDbHelper;
+import libretasks.app.model.LogSink;
+import libretasks.app.model.RuleIndex;
 import android.app.Service;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
 import android.widget.Toast;
 
 /**
  * The service creates monitors for System Events, and could later support third party applications.
+ * Only the monitors needed by the enabled rules run, see {@link MonitorInterests}. They are started
+ * and stopped again whenever the rules change.
  */
 public class EventMonitoringService extends Service {
   // Log tag
   private static final String TAG = EventMonitoringService.class.getSimpleName();
 
+  // Maximum time to wait for the pending logs to be written when the service stops
+  private static final long LOG_FLUSH_TIMEOUT = 2 * 1000;
+
   // Internal binding to provide service bindings
   private final IBinder mBinder = new LocalBinder();
   
   
+  private final LocationMonitor locationMonitor = new LocationMonitor(this);
+
   private final SystemServiceEventMonitor MONITORS[] = {
       new PhoneStateMonitor(this),
-      new LocationMonitor(this),
+      locationMonitor,
       new TimeMonitor(this),
       new NetworkStateMonitor(this)
   };
 
+  // Which monitors are running
+  private final boolean monitorRunning[] = new boolean[MONITORS.length];
+
   // Keep track if already running or not
   private static boolean isAlreadyRunning = false;
 
+  // The running service, to refresh its monitors
+  private static EventMonitoringService instance;
+
+  // Handler of the main thread, monitors are started and stopped on it
+  private Handler handler;
+
+  // Loads the interests off the main thread, the rule index may be locked while it is rebuilt
+  private ExecutorService loader;
+
+  // Whether a load of the interests is queued and not started yet, to merge requests in a row
+  private final AtomicBoolean loadPending = new AtomicBoolean();
+
+  private final Runnable loadInterestsTask = new Runnable() {
+    public void run() {
+      loadPending.set(false);
+      MonitorInterests loaded;
+      try {
+        loaded = MonitorInterests.load(EventMonitoringService.this);
+      } catch (RuntimeException e) {
+        Logger.e(TAG, "Could not load the rules, starting all monitors", e);
+        loaded = null;
+      }
+
+      final MonitorInterests interests = loaded;
+      handler.post(new Runnable() {
+        public void run() {
+          updateMonitors(interests);
+        }
+      });
+    }
+  };
+
+  private final RuleIndex.ChangeListener ruleChangeListener = new RuleIndex.ChangeListener() {
+    public void onRulesChanged() {
+      refresh();
+    }
+  };
+
   public class LocalBinder extends Binder {
     EventMonitoringService getService() {
       return EventMonitoringService.this;
@@ -98,6 +154,31 @@ public class EventMonitoringService extends Service {
     }
   }
 
+  /**
+   * Starts and stops the monitors of the running service according to the current interests, for
+   * changes other than rule changes such as queued failed actions.
+   */
+  public static synchronized void refreshMonitors() {
+    if (instance != null) {
+      instance.refresh();
+    }
+  }
+
+  /**
+   * Loads the interests in the background and then updates the monitors on the main thread,
+   * merging requests made in a row.
+   */
+  private void refresh() {
+    if (loadPending.compareAndSet(false, true)) {
+      try {
+        loader.execute(loadInterestsTask);
+      } catch (RejectedExecutionException e) {
+        // The service is being destroyed
+        loadPending.set(false);
+      }
+    }
+  }
+
   /**
    * Actions performed on service initialization. EventMonitoringService performs initialization of
    * each SystemServiceMonitor.
@@ -117,31 +198,82 @@ public class EventMonitoringService extends Service {
     // Let the user know we're activating rules
     alertUserOnStartStop(true);
 
-    // Start System Monitors
-    for (SystemServiceEventMonitor monitor : MONITORS) {
-      try {
-        monitor.init();
-        Logger.w(TAG, monitor.getMonitorName() + ": Start\n");
-      } catch (Exception e) {
-        Logger.e(TAG, monitor.getMonitorName() + " did not start.\nThe following error occurred: "
-            + e + e.getMessage() + e.getStackTrace());
+    // Start the System Monitors needed by the rules, and follow rule changes
+    handler = new Handler();
+    loader = Executors.newSingleThreadExecutor();
+    refresh();
+    RuleIndex.addChangeListener(ruleChangeListener);
+    synchronized (EventMonitoringService.class) {
+      instance = this;
+    }
+  }
+
+  /**
+   * Starts the monitors needed by the enabled rules and stops the others, on the main thread.
+   * 
+   * @param interests
+   *          the interests of the enabled rules, or null to start all monitors
+   */
+  private void updateMonitors(MonitorInterests interests) {
+    if (!isAlreadyRunning) {
+      return;
+    }
+    Logger.d(TAG, "updating monitors for " + interests);
+
+    // Let the location monitor adapt its sampling to the geofences, before it is started
+    locationMonitor.setGeofences(interests == null ? null : interests.getGeofences());
+
+    for (int i = 0; i < MONITORS.length; i++) {
+      boolean needed = interests == null || MONITORS[i].isNeeded(interests);
+      if (needed && !monitorRunning[i]) {
+        startMonitor(i);
+      } else if (!needed && monitorRunning[i]) {
+        stopMonitor(i);
       }
     }
   }
 
+  private void startMonitor(int i) {
+    SystemServiceEventMonitor monitor = MONITORS[i];
+    try {
+      monitor.init();
+      monitorRunning[i] = true;
+      Logger.w(TAG, monitor.getMonitorName() + ": Start\n");
+    } catch (Exception e) {
+      Logger.e(TAG, monitor.getMonitorName() + " did not start.\nThe following error occurred: "
+          + e + e.getMessage() + e.getStackTrace());
+    }
+  }
+
+  private void stopMonitor(int i) {
+    SystemServiceEventMonitor monitor = MONITORS[i];
+    monitorRunning[i] = false;
+    try {
+      monitor.stop();
+      Logger.w(TAG, monitor.getMonitorName() + " stopped");
+    } catch (Exception e) {
+      Logger.e(TAG, monitor.getMonitorName() + " did not stop.\nThe following error occurred: "
+          + e + e.getMessage() + e.getStackTrace());
+    }
+  }
+
   /**
    * Actions performed on service shut down. EventMonitoringService performs the shut down of each
    * SystemServiceMonitor.
    */
   @Override
   public void onDestroy() {
-    for (SystemServiceEventMonitor monitor : MONITORS) {
-      try {
-        monitor.stop();
-        Logger.w(TAG, monitor.getMonitorName() + " stopped");
-      } catch (Exception e) {
-        Logger.e(TAG, monitor.getMonitorName() + " did not stop.\nThe following error occurred: "
-            + e + e.getMessage() + e.getStackTrace());
+    synchronized (EventMonitoringService.class) {
+      instance = null;
+    }
+    RuleIndex.removeChangeListener(ruleChangeListener);
+    if (loader != null) {
+      loader.shutdownNow();
+    }
+
+    for (int i = 0; i < MONITORS.length; i++) {
+      if (monitorRunning[i]) {
+        stopMonitor(i);
       }
     }
     isAlreadyRunning = false;
@@ -149,6 +281,8 @@ public class EventMonitoringService extends Service {
     // Let the user know we're de-activating rules
     alertUserOnStartStop(false);
 
+    // Don't lose the logs of the last events if the process is killed next
+    LogSink.getInstance(this).flush(LOG_FLUSH_TIMEOUT);
   }
 
   /**
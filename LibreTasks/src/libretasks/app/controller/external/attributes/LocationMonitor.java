@@ -33,6 +33,10 @@
  *******************************************************************************/
 package libretasks.app.controller.external.attributes;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
 import android.content.Context;
 import android.content.Intent;
 import android.location.Location;
@@ -48,57 +52,187 @@ import libretasks.app.controller.util.DataTypeValidationException;
 /**
  * The class is responsible for communication with the Location Service. It provides access to
  * Location Services External Attribute, as well as Initiates Location Change Intents.
+ * <p>
+ * When the enabled rules have location filters, the monitor samples adaptively: the further the
+ * last fix is from the nearest NEAR/AWAY boundary, the longer the update interval and distance,
+ * and the coarse network provider is used instead of GPS when far enough from every boundary.
+ * The interval and distance are rounded to powers of two of their minimum, so that the updates
+ * are only requested again when they change by a factor of two or the provider changes. A new
+ * request delivers the next fix right away, requesting again on every fix would sample at the
+ * rate of the GPS engine. Without geofences the updates are requested at a fixed rate.
+ * </p>
  */
 public class LocationMonitor implements SystemServiceEventMonitor {
   private static final String SYSTEM_SERVICE_NAME = "LOCATION_SERVICE";
   private static final String MONITOR_NAME = "LocationMonitor";
-  private static OmniArea lastLocation;
   /** Minimum frequency in updates(in milliseconds). Default value is 300000 (5 minutes). */
   private static final long MIN_PROVIDER_UPDATE_INTERVAL = 300000;
   /** Minimum change in location(in meters). Default value is 50 meters. */
   private static final float MIN_PROVIDER_UPDATE_DISTANCE = 50;
   private static final String PROVIDER = LocationManager.GPS_PROVIDER;
 
+  /** Speed (in meters per second) at which the device is assumed to approach a boundary at most */
+  private static final double APPROACH_SPEED = 30;
+  /** Bounds of the adaptive update interval (in milliseconds) */
+  private static final long MIN_ADAPTIVE_INTERVAL = 30 * 1000;
+  private static final long MAX_ADAPTIVE_INTERVAL = 15 * 60 * 1000;
+  /** Bounds of the adaptive update distance (in meters) */
+  private static final float MIN_ADAPTIVE_DISTANCE = 10;
+  private static final float MAX_ADAPTIVE_DISTANCE = 1000;
+  /** Distance to the nearest boundary (in meters) from which the network provider is enough */
+  private static final double NETWORK_PROVIDER_DISTANCE = 2000;
+
+  // Statistics over all monitors
+  private static final AtomicLong fixesTaken = new AtomicLong();
+  private static final AtomicLong resamplings = new AtomicLong();
+
   private Context context;
-  
+
+  /** Areas of the location filters of the enabled rules, empty for fixed rate sampling */
+  private ArrayList<OmniArea> geofences = new ArrayList<OmniArea>();
+
+  /** Whether updates are requested, and with which parameters */
+  private boolean running;
+  private String provider;
+  private long interval;
+  private float distance;
+
   public LocationMonitor(Context context) {
     this.context = context;
   }
   
   public void init() {
-    lastLocation = null;
+    running = true;
+    requestUpdates(LocationSnapshot.get(Long.MAX_VALUE));
+  }
+
+  public void stop() {
+    running = false;
+    provider = null;
+    LocationManager lm = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+    lm.removeUpdates(locationListener);
+  }
+
+  /**
+   * Sets the areas the location filters of the enabled rules compare with, adapting the sampling
+   * to them if updates are requested.
+   * 
+   * @param areas
+   *          the areas, null or empty to sample at a fixed rate
+   */
+  public void setGeofences(Collection<OmniArea> areas) {
+    geofences = areas == null ? new ArrayList<OmniArea>() : new ArrayList<OmniArea>(areas);
+    if (running) {
+      requestUpdates(LocationSnapshot.get(Long.MAX_VALUE));
+    }
+  }
+
+  /**
+   * Requests location updates suited to the distance between a fix and the nearest geofence
+   * boundary, unless they are already requested with the same parameters.
+   * 
+   * @param fix
+   *          the last known location, may be null
+   */
+  private void requestUpdates(LocationSnapshot fix) {
     LocationManager lm = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
     if (lm == null) {
       Log.i("LocationService", "Could not obtain LOCATION_SERVICE from the system.");
       return;
     }
-    lm.requestLocationUpdates(PROVIDER, MIN_PROVIDER_UPDATE_INTERVAL, MIN_PROVIDER_UPDATE_DISTANCE,
-        locationListener);
+
+    String newProvider = PROVIDER;
+    long newInterval = MIN_PROVIDER_UPDATE_INTERVAL;
+    float newDistance = MIN_PROVIDER_UPDATE_DISTANCE;
+
+    double boundaryDistance = fix == null ? -1 : getBoundaryDistance(fix);
+    if (boundaryDistance >= 0) {
+      // Take at least two fixes before the boundary can be reached
+      newInterval = (long) quantize(boundaryDistance / APPROACH_SPEED * 1000 / 2,
+          MIN_ADAPTIVE_INTERVAL, MAX_ADAPTIVE_INTERVAL);
+      newDistance = (float) quantize(boundaryDistance / 4, MIN_ADAPTIVE_DISTANCE,
+          MAX_ADAPTIVE_DISTANCE);
+      if (boundaryDistance > NETWORK_PROVIDER_DISTANCE
+          && lm.isProviderEnabled(LocationManager.NETWORK_PROVIDER)) {
+        newProvider = LocationManager.NETWORK_PROVIDER;
+      }
+    }
+
+    if (newProvider.equals(provider) && newInterval == interval && newDistance == distance) {
+      return;
+    }
+    if (provider != null) {
+      lm.removeUpdates(locationListener);
+      resamplings.incrementAndGet();
+    }
+    provider = newProvider;
+    interval = newInterval;
+    distance = newDistance;
+    Log.d(MONITOR_NAME, "requesting " + provider + " updates every " + interval + "ms or "
+        + distance + "m");
+    lm.requestLocationUpdates(provider, interval, distance, locationListener);
   }
 
-  public void stop() {
-    LocationManager lm = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
-    lm.removeUpdates(locationListener);
+  /**
+   * Rounds a value down to its minimum times a power of two, within the bounds.
+   * 
+   * @param value
+   *          the value to round
+   * @param min
+   *          the lower bound, also the smallest step
+   * @param max
+   *          the upper bound
+   * @return the rounded value
+   */
+  private static double quantize(double value, double min, double max) {
+    double step = min;
+    while (step < max && step * 2 <= value) {
+      step *= 2;
+    }
+    return Math.min(step, max);
+  }
+
+  /**
+   * @return the distance (in meters) between a fix and the nearest geofence boundary, or -1 if
+   *         there are no geofences
+   */
+  private double getBoundaryDistance(LocationSnapshot fix) {
+    double nearest = -1;
+    for (OmniArea area : geofences) {
+      double centerDistance = OmniArea.getHaversineDistance(fix.getLatitude(), fix.getLongitude(),
+          area.getLatitude(), area.getLongitude());
+      double boundaryDistance = Math.abs(centerDistance - area.getProximityDistance());
+      if (nearest < 0 || boundaryDistance < nearest) {
+        nearest = boundaryDistance;
+      }
+    }
+    return nearest < 0 ? -1 : nearest / OmniArea.MILES_IN_A_METER;
   }
 
   private final LocationListener locationListener = new LocationListener() {
     public void onLocationChanged(Location location) {
+      fixesTaken.incrementAndGet();
+      LocationSnapshot.update(location);
+
       OmniArea newLocation;
       try {
-        newLocation = new OmniArea(null, location.getLatitude(), location.getLongitude(), location
-            .getAccuracy());
+        newLocation = new LocationSnapshot(location).toOmniArea();
       } catch (DataTypeValidationException e) {
         newLocation = null;
 
       }
 
-      if (newLocation != null && lastLocation != newLocation) {
+      if (newLocation != null) {
         // Create intent
         Intent intent = new Intent(LocationChangedEvent.ACTION_NAME);
         String temp = newLocation.toString();
         intent.putExtra(Event.ATTRIBUTE_LOCATION, temp);
         context.sendBroadcast(intent);
       }
+
+      if (running && !geofences.isEmpty()) {
+        requestUpdates(LocationSnapshot.get(Long.MAX_VALUE));
+      }
     }
 
     /** Required to implement. Do nothing. */
@@ -117,22 +251,52 @@ public class LocationMonitor implements SystemServiceEventMonitor {
   /**
    * Returns current location.
    * 
+   * @param maxAge
+   *          the maximum age of the location in milliseconds
    * @return OmniArea object that has longitude, latitude, and accuracy (proximityDistance)
    * @throws ExternalAttributeAccessException
    *           throws an exception if attribute is unavailable.
    */
-  public OmniArea getAttributeValue() throws ExternalAttributeAccessException {
-    if (lastLocation == null) {
+  public OmniArea getAttributeValue(long maxAge) throws ExternalAttributeAccessException {
+    LocationSnapshot snapshot = LocationSnapshot.get(maxAge);
+    if (snapshot == null) {
       Log.i("LocationService", "Could not obtain Current Location from the system.");
       throw new ExternalAttributeAccessException("Location Service is not available.");
     }
-    return lastLocation;
+    try {
+      return snapshot.toOmniArea();
+    } catch (DataTypeValidationException e) {
+      throw new ExternalAttributeAccessException("Location Service returned an invalid location.");
+    }
+  }
+
+  /**
+   * @return the number of location fixes received by the monitors
+   */
+  public static long getFixesTaken() {
+    return fixesTaken.get();
+  }
+
+  /**
+   * @return the number of times the location updates were requested again with new parameters
+   */
+  public static long getResamplings() {
+    return resamplings.get();
   }
 
   public String getMonitorName() {
     return MONITOR_NAME;
   }
 
+  /**
+   * Location updates are needed by the location changed rules, and keep the location attribute of
+   * the other events up to date.
+   */
+  public boolean isNeeded(MonitorInterests interests) {
+    return interests.hasEvent(LocationChangedEvent.APPLICATION_NAME,
+        LocationChangedEvent.EVENT_NAME) || interests.usesAttribute(Event.ATTRIBUTE_LOCATION);
+  }
+
   public String getSystemServiceName() {
     return SYSTEM_SERVICE_NAME;
   }
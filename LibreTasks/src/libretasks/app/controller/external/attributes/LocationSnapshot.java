@@ -0,0 +1,189 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller.external.attributes;
+
+import android.content.Context;
+import android.location.Criteria;
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.Log;
+import libretasks.app.R;
+import libretasks.app.controller.datatypes.OmniArea;
+import libretasks.app.controller.util.DataTypeValidationException;
+import libretasks.app.controller.util.Logger;
+
+/**
+ * The last known location of the device, shared by the whole process. It is updated by the
+ * {@link LocationMonitor} on every fix, and read by the events and anything else needing the
+ * location, each choosing how old a fix it accepts. The location service is only queried when the
+ * snapshot is older than that.
+ */
+public class LocationSnapshot {
+  private static final String TAG = LocationSnapshot.class.getSimpleName();
+
+  /** The latest snapshot, or null if no location is known yet */
+  private static volatile LocationSnapshot current;
+
+  /** Time the location service was last queried, in milliseconds since the epoch */
+  private static long lastQueryTime;
+
+  private final double latitude;
+  private final double longitude;
+  private final float accuracy;
+  private final long time;
+  private final String provider;
+
+  LocationSnapshot(Location location) {
+    latitude = location.getLatitude();
+    longitude = location.getLongitude();
+    accuracy = location.getAccuracy();
+    time = location.getTime();
+    provider = location.getProvider();
+  }
+
+  /**
+   * Replaces the shared snapshot with a location fix, unless the current snapshot is more recent.
+   * 
+   * @param location
+   *          the location fix
+   */
+  public static synchronized void update(Location location) {
+    if (location != null && (current == null || location.getTime() >= current.time)) {
+      current = new LocationSnapshot(location);
+    }
+  }
+
+  /**
+   * @param maxAge
+   *          the maximum age of the snapshot in milliseconds
+   * @return the shared snapshot, or null if there is none or it is older than maxAge
+   */
+  public static LocationSnapshot get(long maxAge) {
+    LocationSnapshot snapshot = current;
+    if (snapshot == null || snapshot.getAge() > maxAge) {
+      return null;
+    }
+    return snapshot;
+  }
+
+  /**
+   * Returns the shared snapshot if it is recent enough. Otherwise the location service is asked for
+   * its last known location, at most once per maxAge, and the most recent location known is
+   * returned even if it is older than maxAge.
+   * 
+   * @param context
+   *          the context used to get the location service
+   * @param maxAge
+   *          the maximum age of the snapshot in milliseconds before the location service is queried
+   * @return the most recent location known, or null if none is available
+   */
+  public static LocationSnapshot get(Context context, long maxAge) {
+    LocationSnapshot snapshot = get(maxAge);
+    if (snapshot != null) {
+      return snapshot;
+    }
+
+    synchronized (LocationSnapshot.class) {
+      long now = System.currentTimeMillis();
+      if (now - lastQueryTime > maxAge || now < lastQueryTime) {
+        lastQueryTime = now;
+        update(getLastKnownLocation(context));
+      }
+      return current;
+    }
+  }
+
+  /**
+   * Asks the location service for the last known location of its best enabled provider.
+   * 
+   * @param context
+   *          the context used to get the location service
+   * @return the last known location, or null if it is not available
+   */
+  private static Location getLastKnownLocation(Context context) {
+    LocationManager locationManager = (LocationManager) context
+        .getSystemService(Context.LOCATION_SERVICE);
+    if (locationManager == null) {
+      Log.i(TAG, "Could not obtain LOCATION_SERVICE from the system.");
+      return null;
+    }
+
+    String bestProvider = locationManager.getBestProvider(new Criteria(), true);
+    if (bestProvider == null) {
+      Logger.w(TAG, context.getString(R.string.location_no_provider));
+      return null;
+    }
+
+    try {
+      return locationManager.getLastKnownLocation(bestProvider);
+    } catch (Exception e) {
+      Logger.w(TAG, context.getString(R.string.location_unknown_error), e);
+      return null;
+    }
+  }
+
+  public double getLatitude() {
+    return latitude;
+  }
+
+  public double getLongitude() {
+    return longitude;
+  }
+
+  /**
+   * @return the accuracy of the fix in meters
+   */
+  public float getAccuracy() {
+    return accuracy;
+  }
+
+  /**
+   * @return the time of the fix in milliseconds since the epoch
+   */
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * @return the age of the fix in milliseconds
+   */
+  public long getAge() {
+    return System.currentTimeMillis() - time;
+  }
+
+  /**
+   * @return the name of the provider of the fix
+   */
+  public String getProvider() {
+    return provider;
+  }
+
+  /**
+   * @return the location as an area whose proximity distance is the accuracy of the fix, in miles
+   * @throws DataTypeValidationException
+   *           if the coordinates are out of range
+   */
+  public OmniArea toOmniArea() throws DataTypeValidationException {
+    return new OmniArea(null, longitude, latitude, accuracy * OmniArea.MILES_IN_A_METER);
+  }
+
+  @Override
+  public String toString() {
+    return latitude + ", " + longitude + " +/- " + accuracy + "m from " + provider + " ("
+        + getAge() + "ms old)";
+  }
+}
@@ -0,0 +1,116 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller.external.attributes;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import android.content.Context;
+import libretasks.app.controller.RuleSet;
+import libretasks.app.controller.datatypes.OmniArea;
+import libretasks.app.controller.util.DualKey;
+import libretasks.app.model.FailedActionsDbHelper;
+import libretasks.app.model.RuleIndex;
+
+/**
+ * What the enabled rules need from the monitors: the events triggering them, the event attributes
+ * their filters look at, the areas their location filters compare with, and whether failed actions
+ * are waiting to be retried. Each
+ * {@link SystemServiceEventMonitor} decides from it whether it has to run.
+ */
+public class MonitorInterests {
+  private final Set<DualKey<String, String>> events;
+  private final Set<String> attributes;
+  private final Collection<OmniArea> geofences;
+  private final boolean failedActionsQueued;
+
+  private MonitorInterests(Set<DualKey<String, String>> events, Set<String> attributes,
+      Collection<OmniArea> geofences, boolean failedActionsQueued) {
+    this.events = events;
+    this.attributes = attributes;
+    this.geofences = geofences;
+    this.failedActionsQueued = failedActionsQueued;
+  }
+
+  /**
+   * Loads the current interests from the rule index and the database.
+   * 
+   * @param context
+   *          context for the application database resource
+   * @return the interests of the enabled rules
+   */
+  public static MonitorInterests load(Context context) {
+    Set<DualKey<String, String>> events = RuleIndex.getEnabledEvents(context);
+
+    HashSet<String> attributes = new HashSet<String>();
+    HashMap<String, OmniArea> geofences = new HashMap<String, OmniArea>();
+    for (DualKey<String, String> event : events) {
+      RuleSet rules = RuleIndex.getRules(context, event.getKey1(), event.getKey2());
+      attributes.addAll(rules.getAttributes());
+      for (OmniArea area : rules.getAreas()) {
+        geofences.put(area.toString(), area);
+      }
+    }
+
+    FailedActionsDbHelper failedActionsDbHelper = new FailedActionsDbHelper(context);
+    boolean failedActionsQueued;
+    try {
+      failedActionsQueued = failedActionsDbHelper.getActionCount() > 0;
+    } finally {
+      failedActionsDbHelper.close();
+    }
+
+    return new MonitorInterests(events, attributes, geofences.values(), failedActionsQueued);
+  }
+
+  /**
+   * @return true if an enabled rule is triggered by the event
+   */
+  public boolean hasEvent(String appName, String eventName) {
+    return events.contains(new DualKey<String, String>(appName, eventName));
+  }
+
+  /**
+   * @return true if a filter of an enabled rule looks at the event attribute
+   */
+  public boolean usesAttribute(String attributeName) {
+    return attributes.contains(attributeName);
+  }
+
+  /**
+   * @return the distinct areas the location filters of the enabled rules compare with
+   */
+  public Collection<OmniArea> getGeofences() {
+    return geofences;
+  }
+
+  /**
+   * @return true if failed actions are waiting to be retried
+   */
+  public boolean hasFailedActions() {
+    return failedActionsQueued;
+  }
+
+  @Override
+  public String toString() {
+    return events.size() + " event(s), " + attributes.size() + " attribute(s), "
+        + geofences.size() + " geofence(s), "
+        + (failedActionsQueued ? "" : "no ") + "failed actions";
+  }
+}
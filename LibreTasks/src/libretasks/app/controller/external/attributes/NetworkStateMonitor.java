@@ -84,6 +84,13 @@ public class NetworkStateMonitor extends BroadcastReceiver implements SystemServ
     return MONITOR_NAME;
   }
 
+  /**
+   * Always needed, actions check {@link #isConnected()} before running.
+   */
+  public boolean isNeeded(MonitorInterests interests) {
+    return true;
+  }
+
   public String getSystemServiceName() {
     return SYSTEM_SERVICE_NAME;
   }
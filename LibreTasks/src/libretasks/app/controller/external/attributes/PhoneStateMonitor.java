@@ -178,6 +178,13 @@ public class PhoneStateMonitor implements SystemServiceEventMonitor {
     return MONITOR_NAME;
   }
 
+  /**
+   * Always needed, actions check {@link #isServiceAvailable()} before running.
+   */
+  public boolean isNeeded(MonitorInterests interests) {
+    return true;
+  }
+
   public String getSystemServiceName() {
     return SYSTEM_SERVICE_NAME;
   }
@@ -46,4 +46,7 @@ public interface SystemServiceEventMonitor {
 
   /** EventMonitor service name */
   public String getMonitorName();
+
+  /** Whether the monitor has to run to serve the enabled rules */
+  public boolean isNeeded(MonitorInterests interests);
 }
@@ -72,6 +72,14 @@ public class TimeMonitor extends BroadcastReceiver implements SystemServiceEvent
     return MONITOR_NAME;
   }
 
+  /**
+   * Time ticks are needed by the time rules, and to retry or expire failed actions.
+   */
+  public boolean isNeeded(MonitorInterests interests) {
+    return interests.hasEvent(TimeTickEvent.APPLICATION_NAME, TimeTickEvent.EVENT_NAME)
+        || interests.hasFailedActions();
+  }
+
   public String getSystemServiceName() {
     return SYSTEM_SERVICE_NAME;
   }
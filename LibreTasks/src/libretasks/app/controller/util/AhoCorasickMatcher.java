@@ -0,0 +1,156 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.controller.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * Finds all the occurrences of a set of patterns in a text in a single pass, using the
+ * Aho-Corasick automaton. Patterns are added first and the automaton is built on the first match,
+ * after which no more patterns may be added.
+ */
+public class AhoCorasickMatcher {
+
+  /**
+   * A state of the automaton, which has read a prefix of one or more patterns.
+   */
+  private static class Node {
+    final HashMap<Character, Node> children = new HashMap<Character, Node>();
+
+    /** The longest proper suffix of this node's prefix which is also a prefix */
+    Node failure;
+
+    /** The longest proper suffix of this node's prefix which is a pattern */
+    Node output;
+
+    /** Id of the pattern ending at this node, or -1 */
+    int patternId = -1;
+  }
+
+  private final Node root = new Node();
+  private final ArrayList<String> patterns = new ArrayList<String>();
+  private volatile boolean built;
+
+  /**
+   * Adds a pattern to look for.
+   * 
+   * @param pattern
+   *          the pattern
+   * @return the id of the pattern, which is the same for patterns that are equal
+   * @throws IllegalStateException
+   *           if the automaton is already built
+   */
+  public synchronized int addPattern(String pattern) {
+    if (built) {
+      throw new IllegalStateException("Patterns cannot be added after matching.");
+    }
+
+    Node node = root;
+    for (int i = 0; i < pattern.length(); i++) {
+      Character c = pattern.charAt(i);
+      Node child = node.children.get(c);
+      if (child == null) {
+        child = new Node();
+        node.children.put(c, child);
+      }
+      node = child;
+    }
+    if (node.patternId < 0) {
+      node.patternId = patterns.size();
+      patterns.add(pattern);
+    }
+    return node.patternId;
+  }
+
+  /**
+   * @return the number of distinct patterns
+   */
+  public synchronized int size() {
+    return patterns.size();
+  }
+
+  /**
+   * Finds the patterns occurring in a text.
+   * 
+   * @param text
+   *          the text to scan
+   * @return the set of ids of the patterns found in <code>text</code>
+   */
+  public BitSet match(String text) {
+    if (!built) {
+      build();
+    }
+
+    BitSet matches = new BitSet();
+    if (root.patternId >= 0) {
+      // The empty pattern is contained in any text
+      matches.set(root.patternId);
+    }
+
+    Node node = root;
+    for (int i = 0; i < text.length(); i++) {
+      Character c = text.charAt(i);
+      Node next = node.children.get(c);
+      while (next == null && node != root) {
+        node = node.failure;
+        next = node.children.get(c);
+      }
+      node = next == null ? root : next;
+
+      for (Node output = node.patternId >= 0 ? node : node.output; output != null;
+          output = output.output) {
+        matches.set(output.patternId);
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Computes the failure and output links of all nodes, breadth first.
+   */
+  private synchronized void build() {
+    if (built) {
+      return;
+    }
+
+    LinkedList<Node> queue = new LinkedList<Node>();
+    for (Node child : root.children.values()) {
+      child.failure = root;
+      queue.add(child);
+    }
+
+    while (!queue.isEmpty()) {
+      Node node = queue.removeFirst();
+      for (Character c : node.children.keySet()) {
+        Node child = node.children.get(c);
+
+        Node failure = node.failure;
+        while (failure != root && !failure.children.containsKey(c)) {
+          failure = failure.failure;
+        }
+        Node target = failure.children.get(c);
+        child.failure = target == null ? root : target;
+        child.output = child.failure.patternId >= 0 ? child.failure : child.failure.output;
+        queue.add(child);
+      }
+    }
+    built = true;
+  }
+}
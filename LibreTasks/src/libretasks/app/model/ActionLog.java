@@ -65,6 +65,9 @@ public class ActionLog extends Log {
     this.actionName = action.getActionName();
     this.parameters = action.getParameters();
     this.text = action.getDescription();
+    if (action.getSuppressedDuplicates() > 0) {
+      this.text += " (" + action.getSuppressedDuplicates() + " duplicate(s) suppressed)";
+    }
   }
 
   public ActionLog(ActionLog log) {
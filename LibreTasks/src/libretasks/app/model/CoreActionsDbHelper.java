@@ -66,12 +66,12 @@ import libretasks.app.controller.actions.PowerOffAction;
 import libretasks.app.controller.util.ExceptionMessageMap;
 import libretasks.app.controller.util.Logger;
 import libretasks.app.controller.util.OmnidroidException;
-import libretasks.app.model.db.DbHelper;
 import libretasks.app.model.db.RegisteredActionDbAdapter;
 import libretasks.app.model.db.RegisteredActionParameterDbAdapter;
 import libretasks.app.model.db.RegisteredAppDbAdapter;
 import libretasks.app.model.db.RuleActionDbAdapter;
 import libretasks.app.model.db.RuleActionParameterDbAdapter;
+import libretasks.app.model.db.SharedDatabase;
 
 /**
  * This class serves as a database access layer for Omnidroid's Actions framework.
@@ -80,7 +80,7 @@ import libretasks.app.model.db.RuleActionParameterDbAdapter;
 public class CoreActionsDbHelper {
   private static final String TAG = CoreActionsDbHelper.class.getSimpleName();
 
-  private DbHelper dbHelper;
+  private SharedDatabase.Session session;
   private SQLiteDatabase database;
   private RuleActionDbAdapter ruleActionDbAdpater;
   private RuleActionParameterDbAdapter ruleActionParameterDbAdapter;
@@ -93,8 +93,8 @@ public class CoreActionsDbHelper {
   private final int ACTION_NAME = 1;
 
   public CoreActionsDbHelper(Context context) {
-    dbHelper = new DbHelper(context);
-    database = dbHelper.getReadableDatabase();
+    session = SharedDatabase.openSession(context);
+    database = session.getDatabase();
 
     // Initialize db adapters
     ruleActionDbAdpater = new RuleActionDbAdapter(database);
@@ -110,10 +110,7 @@ public class CoreActionsDbHelper {
    */
   public void close() {
     Log.i(TAG, "closing database.");
-    database.close();
-    
-    // Not necessary, but also close all omnidroidDbHelper databases just in case.
-    dbHelper.close();
+    session.close();
   }
 
   /**
@@ -208,7 +205,7 @@ public class CoreActionsDbHelper {
    *           when this object is already closed
    */
   public String fillParamWithEventAttrib(String paramData, Event event) {
-    if (!database.isOpen()) {
+    if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
     
@@ -232,7 +229,7 @@ public class CoreActionsDbHelper {
       String param = paramData.substring(openBracketIdx, closeBracketIdx + 1);
       String paramAttr;
       try {
-        paramAttr = event.getAttribute(attr);
+        paramAttr = event.getCachedAttribute(attr);
       } catch (IllegalArgumentException e) {
         paramAttr = param;
       }
@@ -256,7 +253,7 @@ public class CoreActionsDbHelper {
    *           when this object is already closed
    */
   private ArrayList<Long> getRuleActionIds(Long ruleId) {
-    if (!database.isOpen()) {
+    if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
 
@@ -281,7 +278,7 @@ public class CoreActionsDbHelper {
    *           when this object is already closed
    */
   private String[] getRegisteredActionInfo(Long ruleActionId) {
-    if (!database.isOpen()) {
+    if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
 
@@ -339,7 +336,7 @@ public class CoreActionsDbHelper {
    */
   private void addDataAndRegisteredParamId(Long ruleActionId, Event event,
       HashMap<Long, String> paramsData, HashMap<Long, Long> paramsRegisteredParamId) {
-    if (!database.isOpen()) {
+    if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
 
@@ -370,7 +367,7 @@ public class CoreActionsDbHelper {
    *           when this object is already closed
    */
   private HashMap<Long, String> getRegisteredActionParamNames() {
-    if (!database.isOpen()) {
+    if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
 
@@ -406,7 +403,7 @@ public class CoreActionsDbHelper {
    *           when this object is already closed
    */
   public ArrayList<Action> getActions(long ruleId, String ruleName, Event event) {
-    if (!database.isOpen()) {
+    if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
 
@@ -453,6 +450,7 @@ public class CoreActionsDbHelper {
       try {
         action = getAction(appName, actionName, actionParams);
         action.setRuleName(ruleName);
+        action.setRuleId(ruleId);
         action.setDatabaseId(ruleActionId);
         action.setActionType(Action.RULE_ACTION);
         actions.add(action); // add action to actions ArrayList
@@ -44,8 +44,8 @@ import android.database.sqlite.SQLiteDatabase;
 import android.preference.PreferenceManager;
 import libretasks.app.R;
 import libretasks.app.controller.util.Logger;
-import libretasks.app.model.db.DbHelper;
 import libretasks.app.model.db.LogDbAdapter;
+import libretasks.app.model.db.SharedDatabase;
 
 /**
  * Abstract base class that provides general access to the Log DB layer.
@@ -66,7 +66,7 @@ abstract public class CoreLogsDbHelper {
 
   // DB Management
   protected Context context;
-  protected DbHelper dbHelper;
+  protected SharedDatabase.Session session;
   protected SQLiteDatabase database;
   protected LogDbAdapter logDbAdapter;
 
@@ -79,8 +79,8 @@ abstract public class CoreLogsDbHelper {
    */
   public CoreLogsDbHelper(Context context) {
     this.context = context;
-    dbHelper = new DbHelper(context);
-    database = dbHelper.getWritableDatabase();
+    session = SharedDatabase.openSession(context);
+    database = session.getDatabase();
   }
 
   /**
@@ -89,10 +89,7 @@ abstract public class CoreLogsDbHelper {
    */
   public void close() {
     Logger.i(TAG, "closing database.");
-    database.close();
-
-    // Not necessary, but also close all dbHelper databases just in case.
-    dbHelper.close();
+    session.close();
   }
 
   /**
@@ -115,14 +112,13 @@ abstract public class CoreLogsDbHelper {
   }
 
   /**
-   * Insert a new Log record into DB
+   * Insert a new Log record into DB, the old logs are pruned by the {@link LogRetention} job
    * 
    * @param log
    *          log to store in the DB
    * @return id of the record inserted, -1 if unsuccessful
    */
   public long insert(Log log) {
-    deleteOldLogs();
     log.setTimestamp((new Date()).getTime());
     return logDbAdapter.insert(log);
   }
@@ -145,10 +141,20 @@ abstract public class CoreLogsDbHelper {
   }
 
   public void deleteOldLogs() {
-    if (!database.isOpen()) {
+    if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
 
+    // Delete the old logs
+    logDbAdapter.deleteAllBefore(getLogLimitTimestamp(context));
+  }
+
+  /**
+   * @param context
+   *          context for the application preferences
+   * @return the timestamp before which logs are deleted, according to the log limit preference
+   */
+  public static long getLogLimitTimestamp(Context context) {
     /*
      * Get the Log limit stored in preferences (in hours)
      * 
@@ -162,10 +168,7 @@ abstract public class CoreLogsDbHelper {
     int logLimitHours = Integer.parseInt(sLogLimitHours);
 
     // Convert hours to a limit based on timestamp
-    long logsBeforeTimestamp = (new Date()).getTime() - (logLimitHours * LogDbAdapter.TIME_IN_HOUR);
-
-    // Delete the old logs
-    logDbAdapter.deleteAllBefore(logsBeforeTimestamp);
+    return (new Date()).getTime() - (logLimitHours * LogDbAdapter.TIME_IN_HOUR);
   }
 
 }
@@ -35,6 +35,7 @@ package libretasks.app.model;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import android.content.Context;
 import android.database.Cursor;
@@ -42,17 +43,17 @@ import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 import libretasks.app.controller.Filter;
 import libretasks.app.controller.Rule;
+import libretasks.app.controller.util.DualKey;
 import libretasks.app.controller.util.ExceptionMessageMap;
 import libretasks.app.controller.util.OmnidroidRuntimeException;
 import libretasks.app.controller.util.Tree;
 import libretasks.app.model.db.DataFilterDbAdapter;
-import libretasks.app.model.db.DataTypeDbAdapter;
-import libretasks.app.model.db.DbHelper;
 import libretasks.app.model.db.RegisteredAppDbAdapter;
 import libretasks.app.model.db.RegisteredEventAttributeDbAdapter;
 import libretasks.app.model.db.RegisteredEventDbAdapter;
 import libretasks.app.model.db.RuleDbAdapter;
 import libretasks.app.model.db.RuleFilterDbAdapter;
+import libretasks.app.model.db.SharedDatabase;
 
 /**
  * This class serves as a access layer to the database for Omnidroid's {@code Rule} data model
@@ -60,18 +61,13 @@ import libretasks.app.model.db.RuleFilterDbAdapter;
  */
 public class CoreRulesDbHelper {
   private static final String TAG = CoreActionsDbHelper.class.getSimpleName();
-  private DbHelper dbHelper;
+  private SharedDatabase.Session session;
   private SQLiteDatabase database;
 
   private RegisteredAppDbAdapter applicationDbAdapter;
   private RegisteredEventDbAdapter eventDbAdapter;
-  private RegisteredEventAttributeDbAdapter eventAttributeDbAdapter;
   private RuleDbAdapter ruleDbAdapter;
   private RuleFilterDbAdapter filterDbAdapter;
-  private DataFilterDbAdapter filterComparisonDbAdapter;
-  private DataTypeDbAdapter filterDataTypeDbAdapter;
-
-  private final long rootID = -1;
 
   /**
    * Creates a new CoreDbHelper within the current context and initializes all necessary database
@@ -81,16 +77,13 @@ public class CoreRulesDbHelper {
    *          context for the application database resource
    */
   public CoreRulesDbHelper(Context context) {
-    dbHelper = new DbHelper(context);
-    database = dbHelper.getWritableDatabase();
+    session = SharedDatabase.openSession(context);
+    database = session.getDatabase();
 
     applicationDbAdapter = new RegisteredAppDbAdapter(database);
     eventDbAdapter = new RegisteredEventDbAdapter(database);
-    eventAttributeDbAdapter = new RegisteredEventAttributeDbAdapter(database);
     ruleDbAdapter = new RuleDbAdapter(database);
     filterDbAdapter = new RuleFilterDbAdapter(database);
-    filterComparisonDbAdapter = new DataFilterDbAdapter(database);
-    filterDataTypeDbAdapter = new DataTypeDbAdapter(database);
   }
 
   /**
@@ -106,7 +99,7 @@ public class CoreRulesDbHelper {
     if (appName == null || eventName == null) {
       throw new OmnidroidRuntimeException(140000, ExceptionMessageMap
           .getMessage(new Integer(140000).toString()));
-    } else if (!database.isOpen()) {
+    } else if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
 
@@ -147,9 +140,18 @@ public class CoreRulesDbHelper {
       return rules;
     }
 
+    // Load the filter trees of all these rules with one query
+    HashMap<Long, Tree<Filter>> filterTrees = buildFilterTrees(eventID);
+
     // Build a rule for each row in the database and add it to the rule list
     while (ruleTable.moveToNext()) {
-      rules.add(getRule(ruleTable));
+      long ruleID = CursorHelper.getLongFromCursor(ruleTable, RuleDbAdapter.KEY_RULEID);
+      String ruleName = CursorHelper.getStringFromCursor(ruleTable, RuleDbAdapter.KEY_RULENAME);
+      boolean notify = CursorHelper.getBooleanFromCursor(ruleTable, RuleDbAdapter.KEY_NOTIFICATION);
+      boolean allowDuplicateActions = CursorHelper.getBooleanFromCursor(ruleTable,
+          RuleDbAdapter.KEY_ALLOWDUPLICATEACTIONS);
+      rules.add(new Rule(ruleName, ruleID, filterTrees.get(ruleID), notify,
+          allowDuplicateActions));
     }
 
     ruleTable.close();
@@ -157,137 +159,82 @@ public class CoreRulesDbHelper {
   }
 
   /**
-   * Retrieves a {@link Rule} and associated {@link Filter}s from the database and returns it in a
-   * Rule data structure.
+   * Builds the {@link Tree}s of {@link Filter}s of all enabled rules triggered by an event. All
+   * filters are fetched with a single joined query and the trees are assembled in memory.
    * 
-   * @param ruleRecord
-   *          a {@link Cursor} that points to the rule record to retrieve from the database.
-   * @return a Rule object built from the database record
+   * @param eventID
+   *          the id of the event which triggers the rules
+   * @return a map from rule id to a tree of filters whose structure represents the and/or
+   *         relationships between the filters. Rules without filters have no entry in the map.
    */
-  private Rule getRule(Cursor ruleRecord) {
-    long ruleID = CursorHelper.getLongFromCursor(ruleRecord, RuleDbAdapter.KEY_RULEID);
-    String ruleName = CursorHelper.getStringFromCursor(ruleRecord, RuleDbAdapter.KEY_RULENAME);
-    boolean notify = CursorHelper.getBooleanFromCursor(ruleRecord, RuleDbAdapter.KEY_NOTIFICATION);
-  
-    // Get all filters that belong to this rule
-    Cursor filterTable = filterDbAdapter.fetchAll(ruleID, null, null, null, null, null);
-    Tree<Filter> filterTree = buildFilterTree(filterTable);
-
-    filterTable.close();
-    return new Rule(ruleName, ruleID, filterTree, notify);
-  }
-
-  /**
-   * Builds a {@link Tree} of {@link Filters} from a table of filters.
-   * 
-   * @param filterTable
-   *          a table of filters where each filter has a reference to its parent filter
-   * @return a tree of filters whose structure represents the and/or relationships between the
-   *         filters, or null if there are no filters for this rule
-   */
-  private Tree<Filter> buildFilterTree(Cursor filterTable) {
-
-    if (filterTable.getCount() == 0) {
-      return null;
+  private HashMap<Long, Tree<Filter>> buildFilterTrees(long eventID) {
+    HashMap<Long, Tree<Filter>> roots = new HashMap<Long, Tree<Filter>>();
+
+    // Filter nodes by their ruleFilterID, and the ruleFilterID of their parents
+    HashMap<Long, Tree<Filter>> nodes = new HashMap<Long, Tree<Filter>>();
+    HashMap<Long, Long> parentIDs = new HashMap<Long, Long>();
+    HashMap<Long, Long> ruleIDs = new HashMap<Long, Long>();
+    ArrayList<Long> filterIDs = new ArrayList<Long>();
+
+    Cursor filterTable = filterDbAdapter.fetchAllWithDetails(eventID);
+    try {
+      while (filterTable.moveToNext()) {
+        long filterID = CursorHelper.getLongFromCursor(filterTable,
+            RuleFilterDbAdapter.KEY_RULEFILTERID);
+
+        nodes.put(filterID, new Tree<Filter>(null, getFilter(filterTable)));
+        parentIDs.put(filterID, CursorHelper.getLongFromCursor(filterTable,
+            RuleFilterDbAdapter.KEY_PARENTRULEFILTERID));
+        ruleIDs.put(filterID, CursorHelper.getLongFromCursor(filterTable,
+            RuleFilterDbAdapter.KEY_RULEID));
+        filterIDs.add(filterID);
+      }
+    } finally {
+      filterTable.close();
     }
 
-    Tree<Filter> root = new Tree<Filter>(null, null);
-    Tree<Filter> parentNode;
-
-    // Keep track of processed filters
-    HashMap<Long, Tree<Filter>> visited = new HashMap<Long, Tree<Filter>>();
-    visited.put(rootID, root);
-
-    // Iterate through each filter for this rule and construct a tree
-    while (filterTable.moveToNext()) {
-      long filterID = CursorHelper.getLongFromCursor(filterTable,
-          RuleFilterDbAdapter.KEY_RULEFILTERID);
-
-      Cursor currentFilter;
-      currentFilter = filterDbAdapter.fetch(filterID);
-
-      while (!visited.containsKey(filterID)) {
-        currentFilter.moveToFirst();
-
-        // Create a new Filter node from the database
-        Filter filter = getFilter(currentFilter);
-        Tree<Filter> newNode = new Tree<Filter>(null, filter);
-
-        visited.put(filterID, newNode);
-
-        long parentID = CursorHelper.getLongFromCursor(currentFilter,
-            RuleFilterDbAdapter.KEY_PARENTRULEFILTERID);
-        filterID = parentID;
-
-        /*
-         * Create a branch of descending nodes until we find a visited node to hook it to or reach
-         * the root
-         */
-        if (!visited.containsKey(parentID)) {
-          /* TODO(londinop) Can a filter be stored before its parent filter? */
+    // Hook every node to its parent, or to the root of its rule if it has no parent
+    for (Long filterID : filterIDs) {
+      Tree<Filter> parentNode = nodes.get(parentIDs.get(filterID));
+      if (parentNode == null) {
+        Long ruleID = ruleIDs.get(filterID);
+        parentNode = roots.get(ruleID);
+        if (parentNode == null) {
           parentNode = new Tree<Filter>(null, null);
-          parentNode.addSubTree(newNode);
-          newNode = parentNode;
-
-          currentFilter = filterDbAdapter.fetch(filterID);
-          currentFilter.moveToFirst();
-        } else {
-          parentNode = visited.get(filterID);
-          parentNode.addSubTree(newNode);
+          roots.put(ruleID, parentNode);
         }
       }
-
-      currentFilter.close();
+      parentNode.addSubTree(nodes.get(filterID));
     }
-    return root;
+    return roots;
   }
 
   /**
-   * Populate a {@link Filter} from the RuleFilters, FilterData, and FilterType database tables
+   * Populate a {@link Filter} from a record returned by
+   * {@link RuleFilterDbAdapter#fetchAllWithDetails(Long)}.
    * 
    * @param filterRecord
-   *          a {@link Cursor} that points to the filter record to retrieve from the database.
-   * @return a Filter built from the database records
+   *          a {@link Cursor} that points to the joined filter record
+   * @return a Filter built from the database record
    */
   private Filter getFilter(Cursor filterRecord) {
-    Cursor cursor;
-
-    // Gets the name of the event attribute for this filter
-    cursor = eventAttributeDbAdapter.fetch(CursorHelper.getLongFromCursor(filterRecord,
-        RuleFilterDbAdapter.KEY_EVENTATTRIBUTEID));
-    cursor.moveToFirst();
-    String eventAttributeName = CursorHelper.getStringFromCursor(cursor,
+    String eventAttributeName = CursorHelper.getStringFromCursor(filterRecord,
         RegisteredEventAttributeDbAdapter.KEY_EVENTATTRIBUTENAME);
-
-    // Gets the comparison filter of the OmniType for this filter
-    cursor = filterComparisonDbAdapter.fetch(CursorHelper.getLongFromCursor(filterRecord,
-        RuleFilterDbAdapter.KEY_DATAFILTERID));
-    cursor.moveToFirst();
-    String comparison = CursorHelper.getStringFromCursor(cursor,
+    String comparison = CursorHelper.getStringFromCursor(filterRecord,
         DataFilterDbAdapter.KEY_DATAFILTERNAME);
-
-    long filterOnDataTypeID = CursorHelper.getLongFromCursor(cursor,
-        DataFilterDbAdapter.KEY_FILTERONDATATYPEID);
-    long compareWithDataTypeID = CursorHelper.getLongFromCursor(cursor,
-        DataFilterDbAdapter.KEY_COMPAREWITHDATATYPEID);
-
-    // Gets the OmniType of the event attribute to be compared
-    cursor = filterDataTypeDbAdapter.fetch(filterOnDataTypeID);
-    String filterOnDataType = CursorHelper.getStringFromCursor(cursor,
-        DataTypeDbAdapter.KEY_DATATYPECLASSNAME);
-
-    // Gets the OmniType of the user filter data
-    cursor = filterDataTypeDbAdapter.fetch(compareWithDataTypeID);
-    String compareWithDataType = CursorHelper.getStringFromCursor(cursor,
-        DataTypeDbAdapter.KEY_DATATYPECLASSNAME);
-
-    // Gets the data to be compared using this filter
+    String filterOnDataType = CursorHelper.getStringFromCursor(filterRecord,
+        RuleFilterDbAdapter.KEY_FILTERONDATATYPECLASSNAME);
+    String compareWithDataType = CursorHelper.getStringFromCursor(filterRecord,
+        RuleFilterDbAdapter.KEY_COMPAREWITHDATATYPECLASSNAME);
     String data = CursorHelper.getStringFromCursor(filterRecord,
         RuleFilterDbAdapter.KEY_RULEFILTERDATA);
 
-    cursor.close();
+    Filter filter = new Filter(eventAttributeName, filterOnDataType, comparison,
+        compareWithDataType, data);
 
-    return new Filter(eventAttributeName, filterOnDataType, comparison, compareWithDataType, data);
+    // Compile the filter while loading so that matching events does not need any reflection
+    filter.getPredicate();
+    return filter;
   }
 
   /**
@@ -296,10 +243,7 @@ public class CoreRulesDbHelper {
    */
   public void close() {
     Log.i(TAG, "closing database.");
-    database.close();
-    
-    // Not necessary, but also close all omnidroidDbHelper databases just in case.
-    dbHelper.close();
+    session.close();
   }
 
   public int getActiveRuleCount() {
@@ -309,4 +253,23 @@ public class CoreRulesDbHelper {
     ruleTable.close();
     return ruleCount;
   }
+
+  /**
+   * @return the application and event names of the events which trigger at least one enabled rule
+   */
+  public HashSet<DualKey<String, String>> getEnabledRuleEvents() {
+    if (!session.isOpen()) {
+      throw new IllegalStateException(TAG + " is already closed.");
+    }
+
+    HashSet<DualKey<String, String>> events = new HashSet<DualKey<String, String>>();
+    Cursor eventTable = ruleDbAdapter.fetchEnabledEvents();
+    while (eventTable.moveToNext()) {
+      events.add(new DualKey<String, String>(CursorHelper.getStringFromCursor(eventTable,
+          RegisteredAppDbAdapter.KEY_APPNAME), CursorHelper.getStringFromCursor(eventTable,
+          RegisteredEventDbAdapter.KEY_EVENTNAME)));
+    }
+    eventTable.close();
+    return events;
+  }
 }
@@ -41,7 +41,7 @@ import android.util.Log;
 import libretasks.app.controller.util.DualKey;
 import libretasks.app.model.db.DataFilterDbAdapter;
 import libretasks.app.model.db.DataTypeDbAdapter;
-import libretasks.app.model.db.DbHelper;
+import libretasks.app.model.db.SharedDatabase;
 
 /**
  * This class can be used to query the database for dataFilterID efficiently.
@@ -50,13 +50,13 @@ public class DataFilterIDLookup {
   private static final String TAG = DataFilterIDLookup.class.getSimpleName();
   private DataTypeDbAdapter dataTypeDbAdapter;
   private DataFilterDbAdapter dataFilterDbAdapter;
-  private DbHelper omnidroidDbHelper;
+  private SharedDatabase.Session session;
   private SQLiteDatabase database; 
   private HashMap<DualKey<String, String>, Long> dataFilterIDMap;
 
   public DataFilterIDLookup(Context context) {
-    omnidroidDbHelper = new DbHelper(context);
-    database = omnidroidDbHelper.getWritableDatabase();
+    session = SharedDatabase.openSession(context);
+    database = session.getDatabase();
     dataTypeDbAdapter = new DataTypeDbAdapter(database);
     dataFilterDbAdapter = new DataFilterDbAdapter(database);
     dataFilterIDMap = new HashMap<DualKey<String, String>, Long>();
@@ -68,10 +68,7 @@ public class DataFilterIDLookup {
    */
   public void close() {
     Log.i(TAG, "closing database.");
-    database.close();
-    
-    // Not necessary, but also close all omnidroidDbHelper databases just in case.
-    omnidroidDbHelper.close();
+    session.close();
   }
 
   /**
@@ -85,7 +82,7 @@ public class DataFilterIDLookup {
    *           when this object is already closed
    */
   public long getDataFilterID(String dataTypeName, String dataFilterName) {
-    if (!database.isOpen()) {
+    if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
     
@@ -112,7 +109,7 @@ public class DataFilterIDLookup {
   public long getDataFilterID(String dataTypeName, String compareDataTypeName, String dataFilterName) {
     if (dataTypeName == null || dataFilterName == null) {
       throw new IllegalArgumentException("Arguments null.");
-    } else if (!database.isOpen()) {
+    } else if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
 
@@ -40,7 +40,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import libretasks.app.model.db.DataTypeDbAdapter;
-import libretasks.app.model.db.DbHelper;
+import libretasks.app.model.db.SharedDatabase;
 
 /**
  * This class can be used to query the database for dataTypeID efficiently.
@@ -48,13 +48,13 @@ import libretasks.app.model.db.DbHelper;
 public class DataTypeIDLookup {
   private static final String TAG = DataTypeIDLookup.class.getSimpleName();
   private DataTypeDbAdapter dataTypeDbAdapter;
-  private DbHelper omnidroidDbHelper;
+  private SharedDatabase.Session session;
   private SQLiteDatabase database;
   private HashMap<String, Long> dataTypeIDMap;
   
   public DataTypeIDLookup(Context context){
-    omnidroidDbHelper = new DbHelper(context);
-    database = omnidroidDbHelper.getWritableDatabase();
+    session = SharedDatabase.openSession(context);
+    database = session.getDatabase();
     dataTypeDbAdapter = new DataTypeDbAdapter(database);
     dataTypeIDMap= new HashMap<String, Long>();
   }
@@ -65,10 +65,7 @@ public class DataTypeIDLookup {
    */
   public void close() {
     Log.i(TAG, "closing database.");
-    database.close();
-    
-    // Not necessary, but also close all omnidroidDbHelper databases just in case.
-    omnidroidDbHelper.close();
+    session.close();
   }
   
   /**
@@ -84,7 +81,7 @@ public class DataTypeIDLookup {
   public long getDataTypeID(String dataTypeName) {
     if (dataTypeName == null) {
       throw new IllegalArgumentException("Arguments null.");
-    } else if (!database.isOpen()) {
+    } else if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
     
@@ -63,13 +63,13 @@ import libretasks.app.controller.actions.UpdateTwitterStatusAction;
 import libretasks.app.controller.util.ExceptionMessageMap;
 import libretasks.app.controller.util.Logger;
 import libretasks.app.controller.util.OmnidroidException;
-import libretasks.app.model.db.DbHelper;
 import libretasks.app.model.db.FailedActionParameterDbAdapter;
 import libretasks.app.model.db.FailedActionsDbAdapter;
 import libretasks.app.model.db.RegisteredActionDbAdapter;
 import libretasks.app.model.db.RegisteredAppDbAdapter;
 import libretasks.app.model.db.RuleActionDbAdapter;
 import libretasks.app.model.db.RuleDbAdapter;
+import libretasks.app.model.db.SharedDatabase;
 import libretasks.app.view.simple.UtilUI;
 
 /**
@@ -79,7 +79,7 @@ import libretasks.app.view.simple.UtilUI;
 public class FailedActionsDbHelper {
   private static final String TAG = FailedActionsDbHelper.class.getSimpleName();
 
-  private DbHelper dbHelper;
+  private SharedDatabase.Session session;
   private SQLiteDatabase database;
   private FailedActionsDbAdapter failedActionsDbAdapter;
   private FailedActionParameterDbAdapter failedActionParameterDbAdapter;
@@ -96,8 +96,8 @@ public class FailedActionsDbHelper {
 
   public FailedActionsDbHelper(Context context) {
     this.context = context;
-    dbHelper = new DbHelper(context);
-    database = dbHelper.getWritableDatabase();
+    session = SharedDatabase.openSession(context);
+    database = session.getDatabase();
     failedActionsDbAdapter = new FailedActionsDbAdapter(database);
     failedActionParameterDbAdapter = new FailedActionParameterDbAdapter(database);
     registeredActionDbAdapter = new RegisteredActionDbAdapter(database);
@@ -112,8 +112,7 @@ public class FailedActionsDbHelper {
    */
   public void close() {
     Log.i(TAG, "closing database.");
-    database.close();
-    dbHelper.close();
+    session.close();
   }
 
   /**
@@ -128,7 +127,7 @@ public class FailedActionsDbHelper {
    *           when this object is already closed
    */
   public ArrayList<Action> getActions(int failureType) {
-    if (!database.isOpen()) {
+    if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
 
@@ -147,10 +146,12 @@ public class FailedActionsDbHelper {
       actionParams = getParameters(failedActionId);
       
       Cursor cursor = failedActionsDbAdapter.fetch(failedActionId);
-      cursor = ruleDbAdapter.fetch(getLongFromCursor(cursor, FailedActionsDbAdapter.KEY_RULEID));
+      long ruleId = getLongFromCursor(cursor, FailedActionsDbAdapter.KEY_RULEID);
+      cursor = ruleDbAdapter.fetch(ruleId);
       try {
         action = getAction(actionInfo[KEY_APP_NAME], actionInfo[KEY_ACTION_NAME], actionParams);
         action.setRuleName(getStringFromCursor(cursor, RuleDbAdapter.KEY_RULENAME));
+        action.setRuleId(ruleId);
         action.setNotification(getBooleanFromCursor(cursor, RuleDbAdapter.KEY_NOTIFICATION));
         action.setDatabaseId(failedActionId);
         action.setActionType(Action.FAILED_ACTION);
@@ -252,7 +253,7 @@ public class FailedActionsDbHelper {
    *           when this object is already closed
    */
   private ArrayList<Long> getFailedActionIds(int failureType) {
-    if (!database.isOpen()) {
+    if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
 
@@ -276,7 +277,7 @@ public class FailedActionsDbHelper {
    *           when this object is already closed
    */
   private String[] getRegisteredActionInfo(Long failedActionId) {
-    if (!database.isOpen()) {
+    if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
 
@@ -334,8 +335,9 @@ public class FailedActionsDbHelper {
     Bundle params = intent.getExtras();
     
     for (String paramName : params.keySet()) {
+      // Only the text parameters of the action are kept, not the extras of its execution
       if (!paramName.equals(Action.DATABASE_ID) && !paramName.equals(Action.ACTION_TYPE) &&
-          !paramName.equals(Action.NOTIFICATION)) {
+          !paramName.equals(Action.NOTIFICATION) && params.get(paramName) instanceof String) {
         failedActionParameterDbAdapter.insert(failedActionId, paramName, 
             params.getString(paramName));
       }
@@ -361,11 +363,29 @@ public class FailedActionsDbHelper {
       failedActionsDbAdapter.update(intent.getLongExtra(Action.DATABASE_ID, -1), 
           null, null, result, message);
   }
+
+  /**
+   * @return the number of actions waiting to be retried
+   * 
+   * @throws IllegalStateException
+   *           when this object is already closed
+   */
+  public int getActionCount() {
+    if (!session.isOpen()) {
+      throw new IllegalStateException(TAG + " is already closed.");
+    }
+
+    Cursor cursor = failedActionsDbAdapter.fetchAll();
+    int count = cursor.getCount();
+    cursor.close();
+    return count;
+  }
+
   /**
    * 
    */
   public void deleteOldActions() {
-    if (!database.isOpen()) {
+    if (!session.isOpen()) {
       throw new IllegalStateException(TAG + " is already closed.");
     }
 
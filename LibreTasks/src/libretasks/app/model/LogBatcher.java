@@ -0,0 +1,256 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import libretasks.app.controller.util.Logger;
+import libretasks.app.model.db.LogActionDbAdapter;
+import libretasks.app.model.db.LogDbAdapter;
+import libretasks.app.model.db.LogEventDbAdapter;
+import libretasks.app.model.db.LogGeneralDbAdapter;
+import libretasks.app.model.db.SharedDatabase;
+
+/**
+ * Collects the {@link EventLog}, {@link ActionLog} and {@link GeneralLog} records written while
+ * handling events, and writes them in one transaction with compiled insert statements reused from
+ * one batch to the next. Writing every record on its own commits, and so syncs the journal, once
+ * per record. The old logs are pruned separately by the {@link LogRetention} job.
+ * <p>
+ * Action logs can be queued before the event log which caused them is written, their event id is
+ * set when the batch is committed. The batcher is not thread safe.
+ * </p>
+ */
+public class LogBatcher {
+  private static final String TAG = LogBatcher.class.getSimpleName();
+
+  private final SharedDatabase.Session session;
+  private final SQLiteDatabase database;
+
+  private final LogEventDbAdapter logEventDbAdapter;
+  private final LogActionDbAdapter logActionDbAdapter;
+  private final LogGeneralDbAdapter logGeneralDbAdapter;
+  private final SQLiteStatement insertEvent;
+  private final SQLiteStatement insertAction;
+  private final SQLiteStatement insertGeneral;
+
+  /** Records to write, with the event log which caused each action log, or null */
+  private final ArrayList<Log> pending = new ArrayList<Log>();
+  private final ArrayList<EventLog> causes = new ArrayList<EventLog>();
+  private long firstPendingTime;
+
+  // Statistics, latencies are in milliseconds
+  private long batchCount;
+  private long recordCount;
+  private long commitsSaved;
+  private long totalLatency;
+  private long maxLatency;
+
+  /**
+   * Opens a session on the shared database and compiles the insert statements.
+   * 
+   * @param context
+   *          context for the application database resource
+   */
+  public LogBatcher(Context context) {
+    session = SharedDatabase.openSession(context);
+    database = session.getDatabase();
+
+    logEventDbAdapter = new LogEventDbAdapter(database);
+    logActionDbAdapter = new LogActionDbAdapter(database);
+    logGeneralDbAdapter = new LogGeneralDbAdapter(database);
+    insertEvent = logEventDbAdapter.compileInsert();
+    insertAction = logActionDbAdapter.compileInsert();
+    insertGeneral = logGeneralDbAdapter.compileInsert();
+  }
+
+  /**
+   * @param log
+   *          the event log to write with the next batch
+   */
+  public void add(EventLog log) {
+    queue(log, null);
+  }
+
+  /**
+   * @param log
+   *          the action log to write with the next batch
+   * @param cause
+   *          the event log which caused the action, written before or in the same batch
+   */
+  public void add(ActionLog log, EventLog cause) {
+    queue(log, cause);
+  }
+
+  /**
+   * @param log
+   *          the general log to write with the next batch
+   */
+  public void add(GeneralLog log) {
+    queue(log, null);
+  }
+
+  private void queue(Log log, EventLog cause) {
+    if (!session.isOpen()) {
+      throw new IllegalStateException(TAG + " is already closed.");
+    }
+    if (log.timestamp == null) {
+      log.setTimestamp((new Date()).getTime());
+    }
+    if (pending.isEmpty()) {
+      firstPendingTime = SystemClock.elapsedRealtime();
+    }
+    pending.add(log);
+    causes.add(cause);
+  }
+
+  /**
+   * @return the number of records waiting for the next commit
+   */
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * @return the time in milliseconds since the oldest record waiting for the next commit was added,
+   *         0 if there is none
+   */
+  public long getPendingAge() {
+    return pending.isEmpty() ? 0 : SystemClock.elapsedRealtime() - firstPendingTime;
+  }
+
+  /**
+   * Writes the pending records in one transaction. A record which cannot be written is skipped, as
+   * well as the action logs it caused.
+   */
+  public void commit() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    long start = SystemClock.elapsedRealtime();
+    int written = 0;
+
+    database.beginTransaction();
+    try {
+      for (int i = 0; i < pending.size(); i++) {
+        Log log = pending.get(i);
+        try {
+          if (log instanceof ActionLog) {
+            ((ActionLog) log).setLogEventID(causes.get(i).getID());
+          }
+          log.setID(write(log));
+          written++;
+        } catch (RuntimeException e) {
+          Logger.w(TAG, "Failed to write log " + log, e);
+        }
+      }
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+      pending.clear();
+      causes.clear();
+    }
+
+    // Every record used to be committed on its own
+    long latency = SystemClock.elapsedRealtime() - start;
+    batchCount++;
+    recordCount += written;
+    commitsSaved += Math.max(0, written - 1);
+    totalLatency += latency;
+    if (latency > maxLatency) {
+      maxLatency = latency;
+    }
+    Logger.d(TAG, "wrote " + written + " log(s) in " + latency + " ms, saved "
+        + commitsSaved + " commit(s) in " + batchCount + " batch(es)");
+  }
+
+  private long write(Log log) {
+    LogDbAdapter adapter;
+    SQLiteStatement statement;
+    if (log instanceof EventLog) {
+      adapter = logEventDbAdapter;
+      statement = insertEvent;
+    } else if (log instanceof ActionLog) {
+      adapter = logActionDbAdapter;
+      statement = insertAction;
+    } else {
+      adapter = logGeneralDbAdapter;
+      statement = insertGeneral;
+    }
+    statement.clearBindings();
+    adapter.bindInsert(statement, log);
+    return statement.executeInsert();
+  }
+
+  /**
+   * Commits the pending records and releases the statements and the database session. Attempting
+   * to add records after this call will cause an {@link IllegalStateException} being raised.
+   */
+  public void close() {
+    if (!session.isOpen()) {
+      return;
+    }
+    try {
+      commit();
+    } finally {
+      insertEvent.close();
+      insertAction.close();
+      insertGeneral.close();
+      session.close();
+    }
+  }
+
+  /**
+   * @return the number of batches committed
+   */
+  public long getBatchCount() {
+    return batchCount;
+  }
+
+  /**
+   * @return the number of records written
+   */
+  public long getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * @return the number of commits, and so journal syncs, saved by writing the records in batches
+   */
+  public long getCommitsSaved() {
+    return commitsSaved;
+  }
+
+  /**
+   * @return the average time to commit a batch in milliseconds, 0 if none was committed
+   */
+  public long getAverageLatency() {
+    return batchCount == 0 ? 0 : totalLatency / batchCount;
+  }
+
+  /**
+   * @return the longest time to commit a batch in milliseconds
+   */
+  public long getMaxLatency() {
+    return maxLatency;
+  }
+}
@@ -0,0 +1,241 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.model;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import libretasks.app.controller.util.Logger;
+import libretasks.app.model.db.LogActionDbAdapter;
+import libretasks.app.model.db.LogDbAdapter;
+import libretasks.app.model.db.LogEventDbAdapter;
+import libretasks.app.model.db.LogGeneralDbAdapter;
+import libretasks.app.model.db.SharedDatabase;
+
+/**
+ * Prunes the log tables in the background, instead of deleting the old logs each time a log is
+ * written. A run deletes the logs older than the log limit preference, or than the age set for
+ * their table, and the oldest logs of the tables holding more than the maximum number of rows set
+ * for them. The tables have no maximum number of rows unless one is set.
+ * The space freed is given back to the file system a few pages at a time with SQLite's
+ * incremental vacuum.
+ * <p>
+ * A run is due once {@link #RUN_INTERVAL} passed since the last one, or once
+ * {@link #ROW_THRESHOLD} logs were written since. The caps may be set from any thread, the job
+ * itself runs on the writer thread of the {@link LogSink} which owns it.
+ * </p>
+ */
+public class LogRetention {
+  private static final String TAG = LogRetention.class.getSimpleName();
+
+  /** Maximum time between two runs */
+  public static final long RUN_INTERVAL = 60 * 60 * 1000;
+
+  /** Number of logs written after which a run is due before the interval passed */
+  public static final int ROW_THRESHOLD = 500;
+
+  /** No maximum number of rows, the logs are only pruned by age */
+  public static final int UNLIMITED = 0;
+
+  /** Maximum number of free pages given back to the file system per run */
+  private static final int VACUUM_PAGES = 256;
+
+  private final Context context;
+
+  /** Opened by the first run, so that no database is opened by the thread creating the job */
+  private SharedDatabase.Session session;
+  private SQLiteDatabase database;
+
+  /** The adapters of the log tables, by the class of their logs */
+  private final HashMap<Class<? extends Log>, LogDbAdapter> adapters =
+      new HashMap<Class<? extends Log>, LogDbAdapter>();
+  private final ConcurrentHashMap<Class<? extends Log>, Integer> maxRows =
+      new ConcurrentHashMap<Class<? extends Log>, Integer>();
+  private final ConcurrentHashMap<Class<? extends Log>, Long> maxAges =
+      new ConcurrentHashMap<Class<? extends Log>, Long>();
+  private boolean closed;
+
+  private long lastRun = SystemClock.elapsedRealtime();
+  private int rowsSinceLastRun;
+
+  // Statistics read by other threads, times are in milliseconds
+  private volatile long runCount;
+  private volatile long prunedCount;
+  private volatile long totalTime;
+
+  /**
+   * The first run is due after {@link #RUN_INTERVAL} or {@link #ROW_THRESHOLD} written logs, it
+   * opens a session on the shared database.
+   * 
+   * @param context
+   *          context for the application database resource and the log limit preference
+   */
+  public LogRetention(Context context) {
+    this.context = context;
+  }
+
+  /**
+   * @param type
+   *          the class of the logs of the table
+   * @param rows
+   *          the maximum number of rows kept in the table, or {@link #UNLIMITED}
+   */
+  public void setMaxRows(Class<? extends Log> type, int rows) {
+    if (rows < 0) {
+      throw new IllegalArgumentException("Invalid maximum number of rows " + rows);
+    }
+    maxRows.put(type, rows);
+  }
+
+  /**
+   * @param type
+   *          the class of the logs of the table
+   * @param age
+   *          the maximum age in milliseconds of the logs kept in the table, instead of the log
+   *          limit preference
+   */
+  public void setMaxAge(Class<? extends Log> type, long age) {
+    maxAges.put(type, age);
+  }
+
+  /**
+   * @param count
+   *          the number of logs just written
+   */
+  public void rowsWritten(int count) {
+    rowsSinceLastRun += count;
+  }
+
+  /**
+   * @return whether the interval passed or enough logs were written since the last run
+   */
+  public boolean isDue() {
+    return rowsSinceLastRun >= ROW_THRESHOLD
+        || SystemClock.elapsedRealtime() - lastRun >= RUN_INTERVAL;
+  }
+
+  /**
+   * Prunes the log tables if a run is due.
+   */
+  public void runIfDue() {
+    if (isDue()) {
+      run();
+    }
+  }
+
+  /**
+   * Deletes the logs over the age and size caps of each table, and frees some of the pages they
+   * used.
+   */
+  public void run() {
+    if (closed) {
+      throw new IllegalStateException(TAG + " is already closed.");
+    }
+    if (session == null) {
+      session = SharedDatabase.openSession(context);
+      database = session.getDatabase();
+      adapters.put(EventLog.class, new LogEventDbAdapter(database));
+      adapters.put(ActionLog.class, new LogActionDbAdapter(database));
+      adapters.put(GeneralLog.class, new LogGeneralDbAdapter(database));
+    }
+    long start = SystemClock.elapsedRealtime();
+    long now = System.currentTimeMillis();
+    long logLimitTimestamp = CoreLogsDbHelper.getLogLimitTimestamp(context);
+    int pruned = 0;
+
+    database.beginTransaction();
+    try {
+      for (Class<? extends Log> type : adapters.keySet()) {
+        LogDbAdapter adapter = adapters.get(type);
+        Long maxAge = maxAges.get(type);
+        pruned += adapter.deleteAllBefore(maxAge == null ? logLimitTimestamp : now - maxAge);
+
+        Integer rows = maxRows.get(type);
+        if (rows != null && rows != UNLIMITED) {
+          pruned += adapter.deleteAllButLatest(rows);
+        }
+      }
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+
+    if (pruned > 0) {
+      vacuum();
+    }
+
+    long time = SystemClock.elapsedRealtime() - start;
+    lastRun = SystemClock.elapsedRealtime();
+    rowsSinceLastRun = 0;
+    runCount++;
+    prunedCount += pruned;
+    totalTime += time;
+    Logger.i(TAG, "pruned " + pruned + " log(s) in " + time + " ms, " + prunedCount
+        + " in " + runCount + " run(s) taking " + totalTime + " ms in total");
+  }
+
+  /**
+   * Gives free pages back to the file system. Incremental vacuum is enabled by the database
+   * migration, it does nothing on a database without it.
+   */
+  private void vacuum() {
+    try {
+      // The pragma frees one page per row stepped through
+      Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")", null);
+      cursor.getCount();
+      cursor.close();
+    } catch (RuntimeException e) {
+      Logger.w(TAG, "Failed to vacuum the database", e);
+    }
+  }
+
+  /**
+   * @return the number of runs since the application started
+   */
+  public long getRunCount() {
+    return runCount;
+  }
+
+  /**
+   * @return the number of logs pruned since the application started
+   */
+  public long getPrunedCount() {
+    return prunedCount;
+  }
+
+  /**
+   * @return the time spent pruning since the application started, in milliseconds
+   */
+  public long getTotalTime() {
+    return totalTime;
+  }
+
+  /**
+   * Releases the database session. Attempting to run after this call will cause an
+   * {@link IllegalStateException} being raised.
+   */
+  public void close() {
+    closed = true;
+    if (session != null) {
+      session.close();
+    }
+  }
+}
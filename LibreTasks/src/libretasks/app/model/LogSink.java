@@ -0,0 +1,348 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import libretasks.app.controller.util.Logger;
+
+/**
+ * Writes the {@link EventLog}, {@link ActionLog} and {@link GeneralLog} records of the event
+ * handling in the background, so that handling an event doesn't wait for the database. Records are
+ * appended to a bounded lock-free ring buffer and a writer thread drains it into the log tables
+ * through a {@link LogBatcher}, writing the records which piled up in one transaction. When the
+ * buffer is full the {@link OverflowPolicy} decides which record is lost. The writer also runs
+ * the {@link LogRetention} job when it is idle.
+ */
+public class LogSink {
+  private static final String TAG = LogSink.class.getSimpleName();
+
+  /** Number of records the buffer holds, a power of two */
+  private static final int CAPACITY = 1024;
+
+  /** Maximum number of records written in one transaction */
+  private static final int BATCH_SIZE = 100;
+
+  /** Time to wait between two attempts to append to a full buffer, in nanoseconds */
+  private static final long FULL_WAIT = 1000 * 1000;
+
+  /** Maximum time the idle writer sleeps before checking if the log retention is due, in ns */
+  private static final long IDLE_WAIT = 60L * 1000 * 1000 * 1000;
+
+  /**
+   * What to do when a record is appended to a full buffer.
+   */
+  public enum OverflowPolicy {
+    /** Drop the record being appended */
+    DROP_NEWEST,
+    /** Drop the oldest record waiting to be written, to make room */
+    DROP_OLDEST,
+    /** Wait until the writer makes room, slowing the caller down to the database */
+    WAIT
+  }
+
+  /** A record waiting to be written, with the event log which caused it if it is an action log */
+  private static class Record {
+    final Log log;
+    final EventLog cause;
+
+    Record(Log log, EventLog cause) {
+      this.log = log;
+      this.cause = cause;
+    }
+  }
+
+  /**
+   * Bounded queue for several producers and consumers without locks. Each slot has a sequence
+   * number telling whether it is free for the producer at a position or filled for the consumer.
+   */
+  private static class RingBuffer {
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicReferenceArray<Record> records;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    RingBuffer(int capacity) {
+      mask = capacity - 1;
+      sequences = new AtomicLongArray(capacity);
+      records = new AtomicReferenceArray<Record>(capacity);
+      for (int i = 0; i < capacity; i++) {
+        sequences.set(i, i);
+      }
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    boolean offer(Record record) {
+      while (true) {
+        long position = head.get();
+        int index = (int) (position & mask);
+        long difference = sequences.get(index) - position;
+        if (difference == 0) {
+          if (head.compareAndSet(position, position + 1)) {
+            records.set(index, record);
+            sequences.set(index, position + 1);
+            return true;
+          }
+        } else if (difference < 0) {
+          return false;
+        }
+        // Another producer took the slot, try the next one
+      }
+    }
+
+    /**
+     * @return the oldest record, or null if the buffer is empty
+     */
+    Record poll() {
+      while (true) {
+        long position = tail.get();
+        int index = (int) (position & mask);
+        long difference = sequences.get(index) - (position + 1);
+        if (difference == 0) {
+          if (tail.compareAndSet(position, position + 1)) {
+            Record record = records.get(index);
+            records.set(index, null);
+            sequences.set(index, position + mask + 1);
+            return record;
+          }
+        } else if (difference < 0) {
+          return null;
+        }
+        // Another consumer took the record, try the next one
+      }
+    }
+  }
+
+  private static LogSink instance;
+
+  private final Context context;
+  private final RingBuffer buffer = new RingBuffer(CAPACITY);
+  private final Thread writer;
+  private final LogRetention retention;
+  private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+  // Records appended, and records written, failed or dropped after they were appended
+  private final AtomicLong appendedCount = new AtomicLong();
+  private final AtomicLong completedCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  /** Notified by the writer after each batch, for the threads flushing the sink */
+  private final Object flushLock = new Object();
+
+  private LogSink(Context context) {
+    this.context = context;
+    retention = new LogRetention(context);
+    writer = new Thread(new Runnable() {
+      public void run() {
+        write();
+      }
+    }, TAG);
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * @param context
+   *          any context of the application
+   * @return the log sink of the application, its writer is started on first use
+   */
+  public static synchronized LogSink getInstance(Context context) {
+    if (instance == null) {
+      instance = new LogSink(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * @param policy
+   *          what to do when a record is appended to a full buffer
+   */
+  public void setOverflowPolicy(OverflowPolicy policy) {
+    overflowPolicy = policy;
+  }
+
+  /**
+   * @return what is done when a record is appended to a full buffer
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * @param log
+   *          the event log to write
+   */
+  public void append(EventLog log) {
+    append(new Record(log, null));
+  }
+
+  /**
+   * @param log
+   *          the action log to write
+   * @param cause
+   *          the event log which caused the action, appended before
+   */
+  public void append(ActionLog log, EventLog cause) {
+    append(new Record(log, cause));
+  }
+
+  /**
+   * @param log
+   *          the general log to write
+   */
+  public void append(GeneralLog log) {
+    append(new Record(log, null));
+  }
+
+  private void append(Record record) {
+    // The time the record is appended, not the time it is written
+    record.log.setTimestamp(System.currentTimeMillis());
+
+    while (!buffer.offer(record)) {
+      OverflowPolicy policy = overflowPolicy;
+      if (policy == OverflowPolicy.DROP_NEWEST) {
+        droppedCount.incrementAndGet();
+        return;
+      } else if (policy == OverflowPolicy.DROP_OLDEST) {
+        if (buffer.poll() != null) {
+          droppedCount.incrementAndGet();
+          completedCount.incrementAndGet();
+        }
+      } else {
+        LockSupport.unpark(writer);
+        LockSupport.parkNanos(FULL_WAIT);
+      }
+    }
+    appendedCount.incrementAndGet();
+    LockSupport.unpark(writer);
+  }
+
+  /**
+   * Waits until the records appended before this call are written, when the application stops.
+   * 
+   * @param timeout
+   *          the maximum time to wait in milliseconds
+   * @return true if all the records were written, false if the timeout expired
+   */
+  public boolean flush(long timeout) {
+    long target = appendedCount.get();
+    long deadline = SystemClock.elapsedRealtime() + timeout;
+    LockSupport.unpark(writer);
+    synchronized (flushLock) {
+      while (completedCount.get() < target) {
+        long remaining = deadline - SystemClock.elapsedRealtime();
+        if (remaining <= 0) {
+          Logger.w(TAG, "flush timed out, " + (target - completedCount.get())
+              + " log(s) not written");
+          return false;
+        }
+        try {
+          flushLock.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+    Logger.i(TAG, "flushed, " + appendedCount.get() + " log(s) appended, "
+        + droppedCount.get() + " dropped");
+    return true;
+  }
+
+  /**
+   * @return the retention job pruning the logs written by this sink, to set per table caps
+   */
+  public LogRetention getRetention() {
+    return retention;
+  }
+
+  /**
+   * @return the number of records appended since the application started
+   */
+  public long getAppendedCount() {
+    return appendedCount.get();
+  }
+
+  /**
+   * @return the number of records dropped because the buffer was full
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Drains the buffer into the database, committing when it is empty or the batch is full, and
+   * prunes the old logs when the writer is idle and the retention is due.
+   */
+  private void write() {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+    LogBatcher batcher = null;
+    while (true) {
+      Record record = buffer.poll();
+      if (record != null) {
+        try {
+          if (batcher == null) {
+            batcher = new LogBatcher(context);
+          }
+          if (record.log instanceof EventLog) {
+            batcher.add((EventLog) record.log);
+          } else if (record.log instanceof ActionLog) {
+            batcher.add((ActionLog) record.log, record.cause);
+          } else {
+            batcher.add((GeneralLog) record.log);
+          }
+        } catch (RuntimeException e) {
+          Logger.e(TAG, "Failed to queue log " + record.log, e);
+          completedCount.incrementAndGet();
+        }
+        if (batcher == null || batcher.getPendingCount() < BATCH_SIZE) {
+          continue;
+        }
+      }
+
+      if (batcher != null && batcher.getPendingCount() > 0) {
+        int count = batcher.getPendingCount();
+        try {
+          batcher.commit();
+        } catch (RuntimeException e) {
+          Logger.e(TAG, "Failed to write " + count + " log(s)", e);
+        }
+        completedCount.addAndGet(count);
+        synchronized (flushLock) {
+          flushLock.notifyAll();
+        }
+        retention.rowsWritten(count);
+      } else if (record == null) {
+        try {
+          retention.runIfDue();
+        } catch (RuntimeException e) {
+          Logger.e(TAG, "Failed to prune the logs", e);
+        }
+        LockSupport.parkNanos(this, IDLE_WAIT);
+      }
+    }
+  }
+}
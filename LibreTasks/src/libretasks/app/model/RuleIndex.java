@@ -0,0 +1,148 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+
+import android.content.Context;
+import android.util.Log;
+import libretasks.app.controller.Rule;
+import libretasks.app.controller.RuleSet;
+import libretasks.app.controller.util.DualKey;
+
+/**
+ * Process-wide in-memory index of the enabled {@link Rule}s, keyed by the application name and
+ * event name of the event that triggers them. Entries are loaded from the database the first time
+ * an event type is seen and are served from memory afterwards, so matching an incoming event does
+ * not need to touch SQLite. The rules held here are never modified after they are built, and the
+ * filters of each event type are indexed in a {@link RuleSet}.
+ *
+ * Any code path that changes the stored rules must call {@link #invalidate()} so that the next
+ * event reloads them. Components depending on the set of enabled rules can register a
+ * {@link ChangeListener} to be told about it.
+ */
+public class RuleIndex {
+  private static final String TAG = RuleIndex.class.getSimpleName();
+
+  /** Cached rules, the rule sets may be empty */
+  private static final HashMap<DualKey<String, String>, RuleSet> rules =
+      new HashMap<DualKey<String, String>, RuleSet>();
+
+  /** Application and event names of the events triggering enabled rules, null if not loaded */
+  private static Set<DualKey<String, String>> enabledEvents;
+
+  private static final ArrayList<ChangeListener> listeners = new ArrayList<ChangeListener>();
+
+  /**
+   * Listener told when the stored rules change.
+   */
+  public interface ChangeListener {
+    /**
+     * Called after the index is invalidated, on the thread which changed the rules. Must not call
+     * back into the database directly.
+     */
+    public void onRulesChanged();
+  }
+
+  /**
+   * This is a static utility class which cannot be instantiated.
+   */
+  private RuleIndex() {
+  }
+
+  /**
+   * Returns the enabled rules triggered by the given event, loading them from the database if they
+   * are not indexed yet.
+   *
+   * @param context
+   *          context for the application database resource, only used on a cache miss
+   * @param appName
+   *          the name of the application that owns the event
+   * @param eventName
+   *          the name of the event
+   * @return the rule set for this event, empty if there are no rules
+   */
+  public static synchronized RuleSet getRules(Context context, String appName,
+      String eventName) {
+    DualKey<String, String> key = new DualKey<String, String>(appName, eventName);
+    RuleSet cachedRules = rules.get(key);
+    if (cachedRules != null) {
+      return cachedRules;
+    }
+
+    CoreRulesDbHelper coreRulesDbHelper = new CoreRulesDbHelper(context);
+    try {
+      cachedRules = new RuleSet(coreRulesDbHelper.getRulesMatchingEvent(appName, eventName));
+    } finally {
+      coreRulesDbHelper.close();
+    }
+    Log.d(TAG, "indexed " + cachedRules.getRules().size() + " rule(s) for event " + eventName
+        + " from App " + appName);
+
+    rules.put(key, cachedRules);
+    return cachedRules;
+  }
+
+  /**
+   * Returns the events which trigger at least one enabled rule, loading them from the database if
+   * they are not indexed yet.
+   *
+   * @param context
+   *          context for the application database resource, only used on a cache miss
+   * @return the application and event names of these events
+   */
+  public static synchronized Set<DualKey<String, String>> getEnabledEvents(Context context) {
+    if (enabledEvents == null) {
+      CoreRulesDbHelper coreRulesDbHelper = new CoreRulesDbHelper(context);
+      try {
+        enabledEvents = Collections.unmodifiableSet(coreRulesDbHelper.getEnabledRuleEvents());
+      } finally {
+        coreRulesDbHelper.close();
+      }
+    }
+    return enabledEvents;
+  }
+
+  public static synchronized void addChangeListener(ChangeListener listener) {
+    listeners.add(listener);
+  }
+
+  public static synchronized void removeChangeListener(ChangeListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Drops all indexed rules and notifies the listeners. Must be called whenever rules are added,
+   * changed, enabled, disabled or deleted in the database.
+   */
+  public static void invalidate() {
+    ArrayList<ChangeListener> currentListeners;
+    synchronized (RuleIndex.class) {
+      Log.d(TAG, "invalidating rule index");
+      rules.clear();
+      enabledEvents = null;
+      currentListeners = new ArrayList<ChangeListener>(listeners);
+    }
+
+    for (ChangeListener listener : currentListeners) {
+      listener.onRulesChanged();
+    }
+  }
+}
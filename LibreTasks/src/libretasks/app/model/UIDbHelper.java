@@ -53,10 +53,10 @@ import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 import libretasks.app.R;
 import libretasks.app.controller.datatypes.DataType;
+import libretasks.app.controller.datatypes.DataTypeRegistry;
 import libretasks.app.controller.datatypes.FactoryDataType;
 import libretasks.app.model.db.DataFilterDbAdapter;
 import libretasks.app.model.db.DataTypeDbAdapter;
-import libretasks.app.model.db.DbHelper;
 import libretasks.app.model.db.LogActionDbAdapter;
 import libretasks.app.model.db.LogDbAdapter;
 import libretasks.app.model.db.LogGeneralDbAdapter;
@@ -70,6 +70,7 @@ import libretasks.app.model.db.RuleActionDbAdapter;
 import libretasks.app.model.db.RuleActionParameterDbAdapter;
 import libretasks.app.model.db.RuleDbAdapter;
 import libretasks.app.model.db.RuleFilterDbAdapter;
+import libretasks.app.model.db.SharedDatabase;
 import libretasks.app.view.simple.model.ModelAction;
 import libretasks.app.view.simple.model.ModelApplication;
 import libretasks.app.view.simple.model.ModelAttribute;
@@ -92,7 +93,7 @@ public class UIDbHelper {
   private static final String TAG = UIDbHelper.class.getSimpleName();
 
   // Database management
-  private DbHelper dbHelper;
+  private SharedDatabase.Session session;
   private SQLiteDatabase database;
 
   // Database Adapters
@@ -132,12 +133,13 @@ public class UIDbHelper {
    * Reset the db, drop all necessary table, and recreate them and repopulate them again
    */
   public void resetDB() {
-    dbHelper.cleanup(database);
+    session.getDbHelper().cleanup(database);
+    RuleIndex.invalidate();
   }
 
   public UIDbHelper(Context context) {
-    dbHelper = new DbHelper(context);
-    database = dbHelper.getWritableDatabase();
+    session = SharedDatabase.openSession(context);
+    database = session.getDatabase();
 
     // Initialize db adapters
     dataTypeDbAdapter = new DataTypeDbAdapter(database);
@@ -176,8 +178,7 @@ public class UIDbHelper {
    */
   public void close() {
     isClosed = true;
-    dbHelper.close();
-    database.close();
+    session.close();
   }
 
   /**
@@ -188,7 +189,7 @@ public class UIDbHelper {
     // TODO(ehotou) Consider lazy initialization for some of these stuff.
 
     // Load Preferences
-    settings = dbHelper.getSharedPreferences();
+    settings = session.getDbHelper().getSharedPreferences();
 
     // Load DataTypes
     Cursor cursor = dataTypeDbAdapter.fetchAll();
@@ -318,6 +319,13 @@ public class UIDbHelper {
    * @return a dataType object
    */
   private DataType getDataType(long dataTypeID, String data) {
+    // Registered data types are looked up by their db name, which does not change with the class
+    DataTypeRegistry.Factory factory = DataTypeRegistry.getFactoryByDbName(dataTypeNames
+        .get(dataTypeID));
+    if (factory != null) {
+      return DataTypeRegistry.createObject(factory, data);
+    }
+
     String dataTypeClassName = dataTypeClassNames.get(dataTypeID);
     return FactoryDataType.createObject(dataTypeClassName, data);
   }
@@ -769,6 +777,7 @@ public class UIDbHelper {
       saveFilterRuleNode(ruleID, -1, filterNode);
     }
 
+    RuleIndex.invalidate();
     return ruleID;
   }
 
@@ -834,6 +843,8 @@ public class UIDbHelper {
       ruleFilterDbAdapter.delete(ruleFilterID);
     }
     cursorFilter.close();
+
+    RuleIndex.invalidate();
   }
 
   /**
@@ -865,7 +876,30 @@ public class UIDbHelper {
    *          is the enabled flag
    */
   public void setRuleEnabled(long ruleID, boolean enabled) {
+    if (isClosed) {
+      throw new IllegalStateException(TAG + " is closed.");
+    }
+
     ruleDbAdapter.update(ruleID, null, null, null, enabled, null);
+    RuleIndex.invalidate();
+  }
+
+  /**
+   * Update the flag letting the actions of one rule run even if other rules fire the same actions
+   * 
+   * @param ruleID
+   *          is id of the rule record to be updated
+   * 
+   * @param allowDuplicateActions
+   *          true to never suppress the actions of the rule as duplicates
+   */
+  public void setRuleAllowsDuplicateActions(long ruleID, boolean allowDuplicateActions) {
+    if (isClosed) {
+      throw new IllegalStateException(TAG + " is closed.");
+    }
+
+    ruleDbAdapter.updateAllowDuplicateActions(ruleID, allowDuplicateActions);
+    RuleIndex.invalidate();
   }
 
   public List<ModelLog> getEventLogs() {
@@ -1090,6 +1124,7 @@ public class UIDbHelper {
     }
 
     ruleDbAdapter.update(ruleId, null, null, null, null, notification);
+    RuleIndex.invalidate();
   }
 
 }
@@ -68,8 +68,8 @@ public class DataFilterDbAdapter extends DbAdapter {
   public static final String[] KEYS = { KEY_DATAFILTERID, KEY_DATAFILTERNAME, 
     KEY_DATAFILTERDISPLAYNAME, KEY_FILTERONDATATYPEID, KEY_COMPAREWITHDATATYPEID };
 
-  /* Table name */
-  private static final String DATABASE_TABLE = "DataFilters";
+  /* Table name, package private so that other adapters can join on it */
+  static final String DATABASE_TABLE = "DataFilters";
 
   /* Create and drop statement. */
   protected static final String DATABASE_CREATE = "create table " + DATABASE_TABLE + " ("
@@ -58,8 +58,8 @@ public class DataTypeDbAdapter extends DbAdapter {
   /* An array of all column names */
   public static final String[] KEYS = { KEY_DATATYPEID, KEY_DATATYPENAME, KEY_DATATYPECLASSNAME };
 
-  /* Table name */
-  private static final String DATABASE_TABLE = "DataTypes";
+  /* Table name, package private so that other adapters can join on it */
+  static final String DATABASE_TABLE = "DataTypes";
 
   /* Create and drop statement. */
   protected static final String DATABASE_CREATE = "create table " + DATABASE_TABLE + " ("
@@ -59,7 +59,7 @@ public class DbHelper extends SQLiteOpenHelper  {
   private static final String TAG = DbHelper.class.getName();
 
   // This version number needs to increase whenever a data schema change is made
-  private static final int DATABASE_VERSION = 22;
+  private static final int DATABASE_VERSION = 24;
 
 
   private static final String DATABASE_NAME = "omnidroid";
@@ -69,6 +69,9 @@ public class DbHelper extends SQLiteOpenHelper  {
 
   private Context context;
 
+  /** Whether the upgraded database must be rebuilt to enable incremental vacuum */
+  private boolean vacuumPending;
+
   public DbHelper(Context context) {
     // Set the CursorFactory to null since we don't use it.
     super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -77,6 +80,9 @@ public class DbHelper extends SQLiteOpenHelper  {
 
   @Override
   public void onCreate(SQLiteDatabase db) {
+    // Set before any table is created, so that the new database needs no rebuild
+    db.execSQL(DbMigration.ENABLE_INCREMENTAL_VACUUM);
+
     // If the first install, upgrade starting from DB version 1
     DbMigration.migrateToLatest(context, db, 1);
   }
@@ -85,6 +91,18 @@ public class DbHelper extends SQLiteOpenHelper  {
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
     // If upgrading, upgrade starting from the last version of the DB
     DbMigration.migrateToLatest(context, db, oldVersion);
+    vacuumPending = oldVersion < DbMigration.INCREMENTAL_VACUUM_VERSION;
+  }
+
+  @Override
+  public void onOpen(SQLiteDatabase db) {
+    super.onOpen(db);
+    if (vacuumPending) {
+      // Once after the upgrade, outside of its transaction where VACUUM is not allowed
+      vacuumPending = false;
+      Log.i(TAG, "Rebuilding the database to enable incremental vacuum");
+      db.execSQL("VACUUM");
+    }
   }
 
   /**
@@ -86,6 +86,12 @@ import libretasks.app.model.CursorHelper;
 public class DbMigration {
   private static final String TAG = DbMigration.class.getSimpleName();
 
+  /** Version from which incremental vacuum is enabled, older databases are rebuilt once open */
+  public static final int INCREMENTAL_VACUUM_VERSION = 24;
+
+  /** Lets the log retention give free pages back a few at a time, set before tables are created */
+  public static final String ENABLE_INCREMENTAL_VACUUM = "PRAGMA auto_vacuum = INCREMENTAL";
+
   /**
    * This class does not need to be instantiated.
    */
@@ -130,8 +136,12 @@ public class DbMigration {
     case 21:
       initialVersion(db);
       setDefaultRules(context, db);
-    case 22:
       addBluetooth(db);
+    case 22:
+      addAllowDuplicateActions(db);
+    case 23:
+      addLogTimestampIndexes(db);
+      enableIncrementalVacuum(db);
 
       /*
        * Insert new versions before this line and do not forget to update {@code
@@ -923,6 +933,31 @@ public class DbMigration {
         eventIdMissedCall, dataTypeIdPhoneNumber);
   }
   
+  /**
+   * Adds the rule flag letting the actions of a rule run even if another rule fires the same
+   * actions for the same event.
+   */
+  private static void addAllowDuplicateActions(SQLiteDatabase db) {
+    db.execSQL(RuleDbAdapter.ADD_ALLOWDUPLICATEACTIONS_COLUMN);
+  }
+
+  /**
+   * Indexes the log tables by timestamp, the old logs are deleted by timestamp.
+   */
+  private static void addLogTimestampIndexes(SQLiteDatabase db) {
+    db.execSQL(LogEventDbAdapter.CREATE_TIMESTAMP_INDEX);
+    db.execSQL(LogActionDbAdapter.CREATE_TIMESTAMP_INDEX);
+    db.execSQL(LogGeneralDbAdapter.CREATE_TIMESTAMP_INDEX);
+  }
+
+  /**
+   * Enables incremental vacuum. It only takes effect on an existing database once it is rebuilt,
+   * which {@link DbHelper} does after the upgrade since VACUUM cannot run within its transaction.
+   */
+  private static void enableIncrementalVacuum(SQLiteDatabase db) {
+    db.execSQL(ENABLE_INCREMENTAL_VACUUM);
+  }
+
   private static void addBluetooth(SQLiteDatabase db) {
 		RegisteredAppDbAdapter appDbAdapter = new RegisteredAppDbAdapter(db);
 		long appId = appDbAdapter.getAppId(DbHelper.AppName.SIGNALS);
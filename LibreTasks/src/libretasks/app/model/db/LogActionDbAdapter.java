@@ -38,6 +38,7 @@ import libretasks.app.model.ActionLog;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 /**
  * Database Adapter class for the LogAction table. Defines basic CRUD methods.
@@ -68,6 +69,8 @@ public class LogActionDbAdapter extends LogDbAdapter {
       + KEY_ACTIONEVENTNAME + " text not null, " + KEY_ACTIONPARAMETERS + " text not null, "
       + KEY_DESCRIPTION + " text not null);";
   protected static final String DATABASE_DROP = "DROP TABLE IF EXISTS " + DATABASE_TABLE;
+  protected static final String CREATE_TIMESTAMP_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + DATABASE_TABLE + KEY_TIMESTAMP + " ON " + DATABASE_TABLE + " (" + KEY_TIMESTAMP + ");";
 
   public LogActionDbAdapter(SQLiteDatabase database) {
     super(database);
@@ -174,6 +177,31 @@ public class LogActionDbAdapter extends LogDbAdapter {
         .getAppName(), myLog.getActionName(), myLog.getParameters(), myLog.getText());
   }
 
+  @Override
+  public SQLiteStatement compileInsert() {
+    return database.compileStatement("INSERT INTO " + DATABASE_TABLE + " (" + KEY_TIMESTAMP
+        + ", " + KEY_LOGEVENTID + ", " + KEY_RULENAME + ", " + KEY_ACTIONAPPNAME + ", "
+        + KEY_ACTIONEVENTNAME + ", " + KEY_ACTIONPARAMETERS + ", " + KEY_DESCRIPTION
+        + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+  }
+
+  @Override
+  public void bindInsert(SQLiteStatement statement, Log log) {
+    ActionLog myLog = (ActionLog) log;
+    if (myLog.getLogEventID() == null || myLog.getRuleName() == null
+        || myLog.getAppName() == null || myLog.getActionName() == null
+        || myLog.getParameters() == null || myLog.getText() == null) {
+      throw new IllegalArgumentException("insert parameter null.");
+    }
+    statement.bindLong(1, myLog.getTimestamp());
+    statement.bindLong(2, myLog.getLogEventID());
+    statement.bindString(3, myLog.getRuleName());
+    statement.bindString(4, myLog.getAppName());
+    statement.bindString(5, myLog.getActionName());
+    statement.bindString(6, myLog.getParameters());
+    statement.bindString(7, myLog.getText());
+  }
+
   @Override
   public Cursor fetchAllBefore(long timestamp) {
     // Set selections, selectionArgs, groupBy, having, orderBy to null to fetch all rows.
@@ -188,4 +216,12 @@ public class LogActionDbAdapter extends LogDbAdapter {
     return database.delete(DATABASE_TABLE, where, null);
   }
 
+  @Override
+  public int deleteAllButLatest(int count) {
+    // Ids only increase, delete the records below the id of the oldest one to keep
+    String where = KEY_ID + " <= (SELECT " + KEY_ID + " FROM " + DATABASE_TABLE + " ORDER BY "
+        + KEY_ID + " DESC LIMIT 1 OFFSET " + count + ")";
+    return database.delete(DATABASE_TABLE, where, null);
+  }
+
 }
@@ -36,6 +36,7 @@ package libretasks.app.model.db;
 import libretasks.app.model.Log;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 /**
  * This class represents a Omnidroid log. Logs are displayed on the ActivityEventLog for users to
@@ -63,6 +64,22 @@ public abstract class LogDbAdapter extends DbAdapter {
 
   abstract public long insert(Log log);
 
+  /**
+   * @return a compiled statement inserting a Log record, to reuse with
+   *         {@link #bindInsert(SQLiteStatement, Log)} for several records
+   */
+  abstract public SQLiteStatement compileInsert();
+
+  /**
+   * Binds the columns of a Log record to a statement returned by {@link #compileInsert()}.
+   * 
+   * @param statement
+   *          the compiled insert statement
+   * @param log
+   *          the Log record to insert
+   */
+  abstract public void bindInsert(SQLiteStatement statement, Log log);
+
   /**
    * @return a Cursor that contains all Log records before timestamp
    */
@@ -73,5 +90,12 @@ public abstract class LogDbAdapter extends DbAdapter {
    */
   abstract public int deleteAllBefore(long timestamp);
 
+  /**
+   * @param count
+   *          the number of most recent Log records to keep
+   * @return number of logs deleted that were older than the count most recent ones
+   */
+  abstract public int deleteAllButLatest(int count);
+
   abstract public boolean delete(long id);
 }
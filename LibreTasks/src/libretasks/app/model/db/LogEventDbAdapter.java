@@ -38,6 +38,7 @@ import libretasks.app.model.Log;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 /**
  * Database Adapter class for the LogEvent table. Defines basic CRUD methods.
@@ -67,6 +68,8 @@ public class LogEventDbAdapter extends LogDbAdapter {
       + " text not null, " + KEY_EVENTNAME + " text not null, " + KEY_EVENTPARAMETERS
       + " text not null," + KEY_DESCRIPTION + " text not null);";
   protected static final String DATABASE_DROP = "DROP TABLE IF EXISTS " + DATABASE_TABLE;
+  protected static final String CREATE_TIMESTAMP_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + DATABASE_TABLE + KEY_TIMESTAMP + " ON " + DATABASE_TABLE + " (" + KEY_TIMESTAMP + ");";
 
   public LogEventDbAdapter(SQLiteDatabase database) {
     super(database);
@@ -166,6 +169,27 @@ public class LogEventDbAdapter extends LogDbAdapter {
         .getParameters(), myLog.getText());
   }
 
+  @Override
+  public SQLiteStatement compileInsert() {
+    return database.compileStatement("INSERT INTO " + DATABASE_TABLE + " (" + KEY_TIMESTAMP
+        + ", " + KEY_APPNAME + ", " + KEY_EVENTNAME + ", " + KEY_EVENTPARAMETERS + ", "
+        + KEY_DESCRIPTION + ") VALUES (?, ?, ?, ?, ?)");
+  }
+
+  @Override
+  public void bindInsert(SQLiteStatement statement, Log log) {
+    EventLog myLog = (EventLog) log;
+    if (myLog.getAppName() == null || myLog.getEventName() == null
+        || myLog.getParameters() == null || myLog.getText() == null) {
+      throw new IllegalArgumentException("insert parameter null.");
+    }
+    statement.bindLong(1, myLog.getTimestamp());
+    statement.bindString(2, myLog.getAppName());
+    statement.bindString(3, myLog.getEventName());
+    statement.bindString(4, myLog.getParameters());
+    statement.bindString(5, myLog.getText());
+  }
+
   /**
    * @return a Cursor that contains all LogEvent records since timestamp
    */
@@ -189,4 +213,12 @@ public class LogEventDbAdapter extends LogDbAdapter {
     return database.delete(DATABASE_TABLE, where, null);
   }
 
+  @Override
+  public int deleteAllButLatest(int count) {
+    // Ids only increase, delete the records below the id of the oldest one to keep
+    String where = KEY_ID + " <= (SELECT " + KEY_ID + " FROM " + DATABASE_TABLE + " ORDER BY "
+        + KEY_ID + " DESC LIMIT 1 OFFSET " + count + ")";
+    return database.delete(DATABASE_TABLE, where, null);
+  }
+
 }
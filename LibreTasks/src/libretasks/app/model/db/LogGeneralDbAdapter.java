@@ -39,6 +39,7 @@ import libretasks.app.model.Log;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 /**
  * Database Adapter class for the {@code LogGeneral} table. Defines basic CRUD methods.
@@ -66,6 +67,8 @@ public class LogGeneralDbAdapter extends LogDbAdapter {
       + " integer primary key autoincrement, " + KEY_TIMESTAMP + " integer, " + KEY_DESCRIPTION
       + " text not null);";
   protected static final String DATABASE_DROP = "DROP TABLE IF EXISTS " + DATABASE_TABLE;
+  protected static final String CREATE_TIMESTAMP_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + DATABASE_TABLE + KEY_TIMESTAMP + " ON " + DATABASE_TABLE + " (" + KEY_TIMESTAMP + ");";
   
   protected static final String ADD_LEVEL_COLUMN = "ALTER TABLE " + DATABASE_TABLE  
                + " ADD " + KEY_LEVEL + " integer not null DEFAULT " + LOG_LEVEL_DEFAULT;
@@ -156,6 +159,23 @@ public class LogGeneralDbAdapter extends LogDbAdapter {
     return insert(myLog.getTimestamp(), myLog.getText(), myLog.getLevel());
   }
 
+  @Override
+  public SQLiteStatement compileInsert() {
+    return database.compileStatement("INSERT INTO " + DATABASE_TABLE + " (" + KEY_TIMESTAMP
+        + ", " + KEY_DESCRIPTION + ", " + KEY_LEVEL + ") VALUES (?, ?, ?)");
+  }
+
+  @Override
+  public void bindInsert(SQLiteStatement statement, Log log) {
+    GeneralLog myLog = (GeneralLog) log;
+    if (myLog.getText() == null) {
+      throw new IllegalArgumentException("insert parameter null.");
+    }
+    statement.bindLong(1, myLog.getTimestamp());
+    statement.bindString(2, myLog.getText());
+    statement.bindLong(3, myLog.getLevel());
+  }
+
   @Override
   public Cursor fetchAllBefore(long timestamp) {
     // Set selections, selectionArgs, groupBy, having, orderBy to null to fetch all rows.
@@ -169,4 +189,12 @@ public class LogGeneralDbAdapter extends LogDbAdapter {
     String where = KEY_TIMESTAMP + " < " + timestamp;
     return database.delete(DATABASE_TABLE, where, null);
   }
+
+  @Override
+  public int deleteAllButLatest(int count) {
+    // Ids only increase, delete the records below the id of the oldest one to keep
+    String where = KEY_ID + " <= (SELECT " + KEY_ID + " FROM " + DATABASE_TABLE + " ORDER BY "
+        + KEY_ID + " DESC LIMIT 1 OFFSET " + count + ")";
+    return database.delete(DATABASE_TABLE, where, null);
+  }
 }
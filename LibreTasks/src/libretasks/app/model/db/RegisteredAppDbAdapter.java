@@ -65,8 +65,8 @@ public class RegisteredAppDbAdapter extends DbAdapter {
   public static final String[] KEYS = { KEY_APPID, KEY_APPNAME, KEY_PKGNAME, KEY_ENABLED,
       KEY_LOGIN, KEY_USERNAME, KEY_PASSWORD };
 
-  /* Table name */
-  private static final String DATABASE_TABLE = "RegisteredApps";
+  /* Table name, package private so that other adapters can join on it */
+  static final String DATABASE_TABLE = "RegisteredApps";
 
   /* Create and drop statement. */
   protected static final String DATABASE_CREATE = "create table " + DATABASE_TABLE + " ("
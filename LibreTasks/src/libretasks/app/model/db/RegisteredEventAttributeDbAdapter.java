@@ -62,8 +62,8 @@ public class RegisteredEventAttributeDbAdapter extends DbAdapter {
   public static final String[] KEYS = { KEY_EVENTATTRIBUTEID, KEY_EVENTATTRIBUTENAME, KEY_EVENTID,
       KEY_DATATYPEID };
 
-  /* Table name */
-  private static final String DATABASE_TABLE = "RegisteredEventAttributes";
+  /* Table name, package private so that other adapters can join on it */
+  static final String DATABASE_TABLE = "RegisteredEventAttributes";
   /*
    * FK_EventID used for global attributes. -1 is used since it is the number that will not appear
    * as the eventID of the RegisteredEvents table.
@@ -61,8 +61,8 @@ public class RegisteredEventDbAdapter extends DbAdapter {
   /* An array of all column names */
   public static final String[] KEYS = { KEY_EVENTID, KEY_EVENTNAME, KEY_APPID };
 
-  /* Table name */
-  private static final String DATABASE_TABLE = "RegisteredEvents";
+  /* Table name, package private so that other adapters can join on it */
+  static final String DATABASE_TABLE = "RegisteredEvents";
 
   /* Create and drop statement. */
   protected static final String DATABASE_CREATE = "create table " + DATABASE_TABLE + " ("
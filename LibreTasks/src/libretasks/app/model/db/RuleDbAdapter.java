@@ -65,16 +65,17 @@ public class RuleDbAdapter extends DbAdapter {
   public static final String KEY_CREATED = "Created";
   public static final String KEY_UPDATED = "Updated";
   public static final String KEY_NOTIFICATION = "Notification";
+  public static final String KEY_ALLOWDUPLICATEACTIONS = "AllowDuplicateActions";
  
   //set this 
   private static boolean notification=true;
 
   /* An array of all column names */
   public static final String[] KEYS = { KEY_RULEID, KEY_EVENTID, KEY_RULENAME, KEY_RULEDESC,
-      KEY_ENABLED, KEY_CREATED, KEY_UPDATED, KEY_NOTIFICATION };
+      KEY_ENABLED, KEY_CREATED, KEY_UPDATED, KEY_NOTIFICATION, KEY_ALLOWDUPLICATEACTIONS };
 
-  /* Table name */
-  private static final String DATABASE_TABLE = "Rules";
+  /* Table name, package private so that other adapters can join on it */
+  static final String DATABASE_TABLE = "Rules";
 
   /* Create and drop statement. */
   protected static final String DATABASE_CREATE = "create table " + DATABASE_TABLE + " ("
@@ -90,6 +91,9 @@ public class RuleDbAdapter extends DbAdapter {
   protected static final String ADD_NOTIFICATION_COLUMN = "ALTER TABLE " + DATABASE_TABLE  
                + " ADD " + KEY_NOTIFICATION + " integer not null DEFAULT 1";
 
+  protected static final String ADD_ALLOWDUPLICATEACTIONS_COLUMN = "ALTER TABLE "
+      + DATABASE_TABLE + " ADD " + KEY_ALLOWDUPLICATEACTIONS + " integer not null DEFAULT 0";
+
   /**
    * Constructor.
    * 
@@ -236,6 +240,37 @@ public class RuleDbAdapter extends DbAdapter {
     return qb.query(database, KEYS, null, null, null, null, orderBy);
   }
 
+  /**
+   * Return a Cursor that contains the distinct events triggering at least one enabled rule of an
+   * enabled application. The cursor contains the columns
+   * {@link RegisteredAppDbAdapter#KEY_APPNAME} and {@link RegisteredEventDbAdapter#KEY_EVENTNAME}.
+   * 
+   * @return a Cursor that contains the application and event names.
+   */
+  public Cursor fetchEnabledEvents() {
+    SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+    qb.setDistinct(true);
+    qb.setTables(DATABASE_TABLE
+        + " JOIN " + RegisteredEventDbAdapter.DATABASE_TABLE + " ON "
+        + DATABASE_TABLE + "." + KEY_EVENTID + " = "
+        + RegisteredEventDbAdapter.DATABASE_TABLE + "." + RegisteredEventDbAdapter.KEY_EVENTID
+        + " JOIN " + RegisteredAppDbAdapter.DATABASE_TABLE + " ON "
+        + RegisteredEventDbAdapter.DATABASE_TABLE + "." + RegisteredEventDbAdapter.KEY_APPID
+        + " = " + RegisteredAppDbAdapter.DATABASE_TABLE + "." + RegisteredAppDbAdapter.KEY_APPID);
+    qb.appendWhere(DATABASE_TABLE + "." + KEY_ENABLED + " = 1");
+    qb.appendWhere(" AND " + RegisteredAppDbAdapter.DATABASE_TABLE + "."
+        + RegisteredAppDbAdapter.KEY_ENABLED + " = 1");
+
+    String[] columns = {
+        RegisteredAppDbAdapter.DATABASE_TABLE + "." + RegisteredAppDbAdapter.KEY_APPNAME + " AS "
+            + RegisteredAppDbAdapter.KEY_APPNAME,
+        RegisteredEventDbAdapter.DATABASE_TABLE + "." + RegisteredEventDbAdapter.KEY_EVENTNAME
+            + " AS " + RegisteredEventDbAdapter.KEY_EVENTNAME };
+
+    // Not using additional selections, selectionArgs, groupBy, having, orderBy, set them to null.
+    return qb.query(database, columns, null, null, null, null, null);
+  }
+
   /**
    * Update a rule record with specific parameters.
    * 
@@ -289,6 +324,21 @@ public class RuleDbAdapter extends DbAdapter {
     return false;
   }
   
+  /**
+   * Update whether the actions of a rule are executed even if another rule fires the same actions.
+   * 
+   * @param ruleID
+   *          is id of the record to be updated
+   * @param allowDuplicateActions
+   *          true to never suppress the actions of the rule as duplicates
+   * @return true if success, or false otherwise.
+   */
+  public boolean updateAllowDuplicateActions(long ruleID, boolean allowDuplicateActions) {
+    ContentValues args = new ContentValues();
+    args.put(KEY_ALLOWDUPLICATEACTIONS, allowDuplicateActions);
+    return database.update(DATABASE_TABLE, args, KEY_RULEID + "=" + ruleID, null) > 0;
+  }
+
   /** Sets notifications  */
   public static void setDefaultNotificationValue(Boolean notificationValue) {
     notification=notificationValue;
@@ -74,6 +74,10 @@ public class RuleFilterDbAdapter extends DbAdapter {
   public static final String[] KEYS = { KEY_RULEFILTERID, KEY_RULEID, KEY_EVENTATTRIBUTEID,
       KEY_EXTERNALATTRIBUTEID, KEY_DATAFILTERID, KEY_PARENTRULEFILTERID, KEY_RULEFILTERDATA };
 
+  /* Column aliases of the data type class names returned by fetchAllWithDetails */
+  public static final String KEY_FILTERONDATATYPECLASSNAME = "FilterOnDataTypeClassName";
+  public static final String KEY_COMPAREWITHDATATYPECLASSNAME = "CompareWithDataTypeClassName";
+
   /* Table name */
   private static final String DATABASE_TABLE = "RuleFilters";
 
@@ -237,6 +241,77 @@ public class RuleFilterDbAdapter extends DbAdapter {
     return qb.query(database, KEYS, null, null, null, null, null);
   }
 
+  /**
+   * Return a Cursor that contains the RuleFilter records of all enabled rules triggered by an
+   * event, joined with the names of their event attribute and data filter and the class names of
+   * the data types they compare. This fetches everything needed to build the filter trees of these
+   * rules with a single query.
+   * <p>
+   * The cursor contains the columns {@link #KEY_RULEFILTERID}, {@link #KEY_RULEID},
+   * {@link #KEY_PARENTRULEFILTERID}, {@link #KEY_RULEFILTERDATA},
+   * {@link RegisteredEventAttributeDbAdapter#KEY_EVENTATTRIBUTENAME},
+   * {@link DataFilterDbAdapter#KEY_DATAFILTERNAME}, {@link #KEY_FILTERONDATATYPECLASSNAME} and
+   * {@link #KEY_COMPAREWITHDATATYPECLASSNAME}. Records are ordered by rule and then by
+   * ruleFilterID, so parent filters come before their children.
+   * </p>
+   * 
+   * @param eventID
+   *          is the id of the event which triggers the rules.
+   * @return a Cursor that contains the joined RuleFilter records.
+   * @throws IllegalArgumentException
+   *           if eventID is null
+   */
+  public Cursor fetchAllWithDetails(Long eventID) {
+    if (eventID == null) {
+      throw new IllegalArgumentException("eventID null.");
+    }
+
+    String filterOnDataTypes = "FilterOnDataTypes";
+    String compareWithDataTypes = "CompareWithDataTypes";
+
+    SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+    qb.setTables(DATABASE_TABLE
+        + " JOIN " + RuleDbAdapter.DATABASE_TABLE + " ON "
+        + DATABASE_TABLE + "." + KEY_RULEID + " = "
+        + RuleDbAdapter.DATABASE_TABLE + "." + RuleDbAdapter.KEY_RULEID
+        + " JOIN " + RegisteredEventAttributeDbAdapter.DATABASE_TABLE + " ON "
+        + DATABASE_TABLE + "." + KEY_EVENTATTRIBUTEID + " = "
+        + RegisteredEventAttributeDbAdapter.DATABASE_TABLE + "."
+        + RegisteredEventAttributeDbAdapter.KEY_EVENTATTRIBUTEID
+        + " JOIN " + DataFilterDbAdapter.DATABASE_TABLE + " ON "
+        + DATABASE_TABLE + "." + KEY_DATAFILTERID + " = "
+        + DataFilterDbAdapter.DATABASE_TABLE + "." + DataFilterDbAdapter.KEY_DATAFILTERID
+        + " JOIN " + DataTypeDbAdapter.DATABASE_TABLE + " " + filterOnDataTypes + " ON "
+        + DataFilterDbAdapter.DATABASE_TABLE + "." + DataFilterDbAdapter.KEY_FILTERONDATATYPEID
+        + " = " + filterOnDataTypes + "." + DataTypeDbAdapter.KEY_DATATYPEID
+        + " JOIN " + DataTypeDbAdapter.DATABASE_TABLE + " " + compareWithDataTypes + " ON "
+        + DataFilterDbAdapter.DATABASE_TABLE + "." + DataFilterDbAdapter.KEY_COMPAREWITHDATATYPEID
+        + " = " + compareWithDataTypes + "." + DataTypeDbAdapter.KEY_DATATYPEID);
+    qb.appendWhere(RuleDbAdapter.DATABASE_TABLE + "." + RuleDbAdapter.KEY_EVENTID + " = "
+        + eventID);
+    qb.appendWhere(" AND " + RuleDbAdapter.DATABASE_TABLE + "." + RuleDbAdapter.KEY_ENABLED
+        + " = 1");
+
+    String[] columns = {
+        DATABASE_TABLE + "." + KEY_RULEFILTERID + " AS " + KEY_RULEFILTERID,
+        DATABASE_TABLE + "." + KEY_RULEID + " AS " + KEY_RULEID,
+        DATABASE_TABLE + "." + KEY_PARENTRULEFILTERID + " AS " + KEY_PARENTRULEFILTERID,
+        DATABASE_TABLE + "." + KEY_RULEFILTERDATA + " AS " + KEY_RULEFILTERDATA,
+        RegisteredEventAttributeDbAdapter.DATABASE_TABLE + "."
+            + RegisteredEventAttributeDbAdapter.KEY_EVENTATTRIBUTENAME + " AS "
+            + RegisteredEventAttributeDbAdapter.KEY_EVENTATTRIBUTENAME,
+        DataFilterDbAdapter.DATABASE_TABLE + "." + DataFilterDbAdapter.KEY_DATAFILTERNAME + " AS "
+            + DataFilterDbAdapter.KEY_DATAFILTERNAME,
+        filterOnDataTypes + "." + DataTypeDbAdapter.KEY_DATATYPECLASSNAME + " AS "
+            + KEY_FILTERONDATATYPECLASSNAME,
+        compareWithDataTypes + "." + DataTypeDbAdapter.KEY_DATATYPECLASSNAME + " AS "
+            + KEY_COMPAREWITHDATATYPECLASSNAME };
+
+    // Not using additional selections, selectionArgs, groupBy or having, set them to null.
+    return qb.query(database, columns, null, null, null, null, DATABASE_TABLE + "." + KEY_RULEID
+        + ", " + DATABASE_TABLE + "." + KEY_RULEFILTERID);
+  }
+
   /**
    * Update a RuleFilter record with specific parameters.
    * 
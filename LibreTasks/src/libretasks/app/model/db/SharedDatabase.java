@@ -0,0 +1,163 @@
+/*  
+ * Copyright (c) 2016  LibreTasks - https://github.com/biotinker/LibreTasks  
+ *  
+ *  This file is free software: you may copy, redistribute and/or modify it  
+ *  under the terms of the GNU General Public License as published by the  
+ *  Free Software Foundation, either version 3 of the License, or (at your  
+ *  option) any later version.  
+ *  
+ *  This file is distributed in the hope that it will be useful, but  
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of  
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU  
+ *  General Public License for more details.  
+ *  
+ *  You should have received a copy of the GNU General Public License  
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.  
+ */
+package libretasks.app.model.db;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Owns the one connection to the application database of the process. The database helpers open a
+ * {@link Session} instead of their own {@link DbHelper}, so that handling an event or showing a
+ * screen doesn't open and close the database several times. The connection is opened by the first
+ * session and stays open while the process lives; closing a session only releases its reference.
+ * On Android 3.0 and later the connection uses write-ahead logging, so that the user interface can
+ * read while the event handling writes.
+ */
+public class SharedDatabase {
+  private static final String TAG = SharedDatabase.class.getSimpleName();
+
+  private static DbHelper dbHelper;
+  private static SQLiteDatabase database;
+
+  // Statistics
+  private static int activeSessions;
+  private static long connectionsOpened;
+  private static long sessionsOpened;
+  private static long sessionsClosed;
+
+  /**
+   * A reference to the shared connection. Using the session after {@link #close()} raises an
+   * {@link IllegalStateException}.
+   */
+  public static class Session {
+    private boolean closed;
+
+    private Session() {
+    }
+
+    /**
+     * @return the shared database
+     * @throws IllegalStateException
+     *           when this session is already closed
+     */
+    public SQLiteDatabase getDatabase() {
+      checkOpen();
+      return database;
+    }
+
+    /**
+     * @return the helper which opened the shared database, for maintenance like resetting it
+     * @throws IllegalStateException
+     *           when this session is already closed
+     */
+    public DbHelper getDbHelper() {
+      checkOpen();
+      return dbHelper;
+    }
+
+    /**
+     * @return whether this session can still be used
+     */
+    public boolean isOpen() {
+      synchronized (SharedDatabase.class) {
+        return !closed;
+      }
+    }
+
+    /**
+     * Releases this session, the shared connection stays open. Closing a session twice has no
+     * effect.
+     */
+    public void close() {
+      release(this);
+    }
+
+    private void checkOpen() {
+      if (!isOpen()) {
+        throw new IllegalStateException(TAG + " session is already closed.");
+      }
+    }
+  }
+
+  /**
+   * This is a static utility class which cannot be instantiated.
+   */
+  private SharedDatabase() {
+  }
+
+  /**
+   * Opens a session on the shared database, opening and upgrading the database if this is the
+   * first session of the process.
+   * 
+   * @param context
+   *          any context of the application
+   * @return a new session, to close when done with the database
+   */
+  public static synchronized Session openSession(Context context) {
+    if (database == null || !database.isOpen()) {
+      dbHelper = new DbHelper(context.getApplicationContext());
+      database = dbHelper.getWritableDatabase();
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+        database.enableWriteAheadLogging();
+      }
+      connectionsOpened++;
+      Log.i(TAG, "opened the shared database, connection " + connectionsOpened);
+    }
+    activeSessions++;
+    sessionsOpened++;
+    return new Session();
+  }
+
+  private static synchronized void release(Session session) {
+    if (session.closed) {
+      return;
+    }
+    session.closed = true;
+    activeSessions--;
+    sessionsClosed++;
+  }
+
+  /**
+   * @return the number of sessions not closed yet
+   */
+  public static synchronized int getActiveSessions() {
+    return activeSessions;
+  }
+
+  /**
+   * @return the number of times the database connection was opened since the process started
+   */
+  public static synchronized long getConnectionsOpened() {
+    return connectionsOpened;
+  }
+
+  /**
+   * @return the number of sessions opened since the process started
+   */
+  public static synchronized long getSessionsOpened() {
+    return sessionsOpened;
+  }
+
+  /**
+   * @return the number of sessions closed since the process started
+   */
+  public static synchronized long getSessionsClosed() {
+    return sessionsClosed;
+  }
+}